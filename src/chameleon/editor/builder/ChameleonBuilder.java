@@ -13,6 +13,7 @@ import org.eclipse.core.resources.IncrementalProjectBuilder;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 
 import chameleon.core.compilationunit.CompilationUnit;
 import chameleon.core.language.Language;
@@ -68,7 +69,7 @@ public class ChameleonBuilder extends IncrementalProjectBuilder {
 
 	protected IProject[] fullBuild(Map arguments, IProgressMonitor monitor) throws CoreException {
 		System.out.println("RUNNING FULL BUILD!");
-		build(chameleonNature().compilationUnits());
+		build(chameleonNature().compilationUnits(), monitor);
 		return new IProject[0];
 	}
 
@@ -78,11 +79,15 @@ public class ChameleonBuilder extends IncrementalProjectBuilder {
 
 	protected IProject[] incrementalBuild(Map arguments, IProgressMonitor monitor) throws CoreException {
 		IResourceDelta delta = getDelta(getProject());
-		incrementalBuild(delta);
+		incrementalBuild(delta, monitor);
 		return new IProject[0];
 	}
 
 	public void incrementalBuild(IResourceDelta delta) throws CoreException {
+		incrementalBuild(delta, null);
+	}
+
+	public void incrementalBuild(IResourceDelta delta, final IProgressMonitor monitor) throws CoreException {
 		System.out.println("RUNNING INCREMENTAL BUILD!");
 		delta.accept(new ChameleonResourceDeltaFileVisitor(chameleonNature()){
 		
@@ -99,7 +104,7 @@ public class ChameleonBuilder extends IncrementalProjectBuilder {
 					CompilationUnit cu = doc.compilationUnit();
 					List<CompilationUnit> cus = new ArrayList<CompilationUnit>();
 					cus.add(cu);
-					build(cus);
+					build(cus, monitor);
 				}
 			}
 
@@ -111,18 +116,38 @@ public class ChameleonBuilder extends IncrementalProjectBuilder {
 	}
 
 	public void build(List<CompilationUnit> compilationUnits) throws CoreException {
-		chameleonNature().flushProjectCache();
+		build(compilationUnits, null);
+	}
+
+	/**
+	 * Verify and build the given compilation units. The build stops between two compilation
+	 * units when the given monitor is canceled.
+	 */
+	public void build(List<CompilationUnit> compilationUnits, IProgressMonitor monitor) throws CoreException {
+		// Verification resolves cross-references, which can lead to any document of the project.
+		chameleonNature().ensureAllParsed();
+		chameleonNature().flushCache(compilationUnits);
 		for(CompilationUnit cu: compilationUnits) {
-			build(cu);
+			if(monitor != null && monitor.isCanceled()) {
+				throw new OperationCanceledException();
+			}
+			build(cu, monitor);
 		}
 	}
 	
 	public void build(CompilationUnit cu) throws CoreException {
+		build(cu, null);
+	}
+
+	public void build(CompilationUnit cu, IProgressMonitor monitor) throws CoreException {
 		Builder builder = builder();
 		if(builder != null) {
 			try {
 				ChameleonDocument doc = chameleonNature().document(cu);
-				VerificationResult ver = ChameleonReconcilingStrategy.checkVerificationErrors(doc);
+				VerificationResult ver = ChameleonReconcilingStrategy.checkVerificationErrors(doc, monitor);
+				if(ver == null && monitor != null && monitor.isCanceled()) {
+					throw new OperationCanceledException();
+				}
 				if(ver == null) {
 					System.out.println("debug");
 				}
@@ -3,7 +3,9 @@ package chameleon.editor.connector;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 import org.eclipse.core.runtime.Platform;
 import org.eclipse.jface.resource.ImageDescriptor;
@@ -78,6 +80,15 @@ public abstract class EclipseEditorExtension extends ConnectorImpl {
    * groups.
    */
   public abstract DeclarationCategorizer declarationCategorizer();
+  
+  /**
+   * Return the keywords of the language. The words of a document that are keywords are
+   * highlighted with the style for EclipseEditorTag.KEYWORD_TAG as soon as they are typed,
+   * without waiting for the document to be parsed. By default, there are no keywords.
+   */
+  public Set<String> keywords() {
+  	return Collections.emptySet();
+  }
 
 	/**
 	 * Register an icon in the image registry. The icon must be in the icons/ directory
@@ -1,8 +1,14 @@
 package chameleon.editor.connector;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.BadPositionCategoryException;
 
 import chameleon.core.compilationunit.CompilationUnit;
 import chameleon.core.element.Element;
@@ -33,6 +39,227 @@ public class EclipseEditorInputProcessor extends ProcessorImpl implements InputP
 		_projectNature = nature;
 	}
 	
+	// The parse session of the current thread, if any.
+	private ThreadLocal<ParseSession> _session = new ThreadLocal<ParseSession>();
+	
+	/**
+	 * Start a parse session for the current version of the given document in the current thread.
+	 * 
+	 * @see #startSession(ChameleonDocument, long)
+	 */
+	public void startSession(ChameleonDocument document) {
+		startSession(document, document.version());
+	}
+	
+	/**
+	 * Start a parse session for the given version of the given document in the current thread.
+	 * Until the session is finished, the locations that are set are buffered instead of being
+	 * added one by one to the positions of the document. Each addition would do a sorted insert,
+	 * which makes the parse of a document with n tags take O(n^2) time.
+	 * 
+	 * The locations must be set for elements of the given document, and refer to the text
+	 * of the given version.
+	 */
+	public void startSession(ChameleonDocument document, long version) {
+		_session.set(new ParseSession(document, version, null));
+	}
+	
+	/**
+	 * Start a parse session for the current version of the given document in the current thread.
+	 * The attributes of the markers of the syntax errors that are found during the session are
+	 * added to the given list instead of being created on the file, so the caller can create them
+	 * after it has released its locks.
+	 * 
+	 * @see #startSession(ChameleonDocument, long)
+	 */
+	public void startSession(ChameleonDocument document, List<Map<String,Object>> parseErrors) {
+		_session.set(new ParseSession(document, document.version(), parseErrors));
+	}
+	
+	/**
+	 * Finish the parse session of the current thread. The buffered tags are sorted
+	 * by offset and added to the positions of the document of the session. If the
+	 * document has changed since the session was started, the locations no longer
+	 * match its text, and the tags are discarded instead.
+	 * 
+	 * @return False if the tags have been discarded.
+	 */
+	public boolean finishSession() {
+		ParseSession session = _session.get();
+		_session.set(null);
+		if(session != null) {
+			return session.install();
+		}
+		return true;
+	}
+	
+	/**
+	 * Finish the parse session of the current thread without adding anything to its document.
+	 * This must be done when the parse failed: the locations then belong to elements that are
+	 * not part of the model.
+	 */
+	public void abortSession() {
+		ParseSession session = _session.get();
+		_session.set(null);
+		if(session != null) {
+			session.discard();
+		}
+	}
+	
+	private static class ParseSession {
+		
+		public ParseSession(ChameleonDocument document, long version, List<Map<String,Object>> parseErrors) {
+			_document = document;
+			_version = version;
+			_parseErrors = parseErrors;
+			for(EclipseEditorTag tag: document.takeRetiredTags()) {
+				RetiredKey key = new RetiredKey(tag.getName(), tag.getElement().getClass(), tag.getOffset(), tag.getLength());
+				List<EclipseEditorTag> tags = _retired.get(key);
+				if(tags == null) {
+					tags = new ArrayList<EclipseEditorTag>(1);
+					_retired.put(key, tags);
+				}
+				tags.add(tag);
+			}
+		}
+		
+		// The tags of the previous parse of the document that can still be reused.
+		private Map<RetiredKey, List<EclipseEditorTag>> _retired = new HashMap<RetiredKey, List<EclipseEditorTag>>();
+		
+		/**
+		 * Return a tag for the given location of the given element. A tag of the previous
+		 * parse with the same name and location, and an element of the same class, is reused
+		 * so the unchanged parts of the document keep their positions.
+		 */
+		public EclipseEditorTag tag(int offset, int length, Element element, String name) {
+			List<EclipseEditorTag> tags = _retired.isEmpty() ? null : _retired.get(new RetiredKey(name, element.getClass(), offset, length));
+			if(tags != null && ! tags.isEmpty()) {
+				EclipseEditorTag result = tags.remove(tags.size() - 1);
+				result.reuse(_document, offset, length, element);
+				return result;
+			} else {
+				return new EclipseEditorTag(_document, offset, length, element, name, false);
+			}
+		}
+		
+		private ChameleonDocument _document;
+		
+		public ChameleonDocument document() {
+			return _document;
+		}
+		
+		// The attributes of the markers of the syntax errors, if they must not be created yet.
+		private List<Map<String,Object>> _parseErrors;
+		
+		public List<Map<String,Object>> parseErrors() {
+			return _parseErrors;
+		}
+		
+		// The version of the text of the document from which the locations are taken.
+		private long _version;
+		
+		private List<EclipseEditorTag> _tags = new ArrayList<EclipseEditorTag>();
+		
+		public void add(EclipseEditorTag tag) {
+			_tags.add(tag);
+		}
+		
+		// The locations for the tag store of the document, as views.
+		private List<EclipseEditorTag> _packed = new ArrayList<EclipseEditorTag>();
+		
+		public void addPacked(int offset, int length, Element element, String name) {
+			_packed.add(new EclipseEditorTag(_document, offset, length, element, name, true));
+		}
+		
+		/**
+		 * Add the buffered tags to the document in order of their offsets, so every
+		 * tag is appended to the positions of the document, and add the buffered locations
+		 * to the tag store of the document. Nothing is added if the document no longer
+		 * has the version of the session.
+		 */
+		public boolean install() {
+			if(_document.version() != _version) {
+				discard();
+				return false;
+			}
+			for(EclipseEditorTag location: _packed) {
+				_document.tagStore().add(location.getOffset(), location.getLength(), location.getElement(), location.getName());
+			}
+			_packed.clear();
+			Collections.sort(_tags, INSTALL_ORDER);
+			for(EclipseEditorTag tag: _tags) {
+				try {
+					_document.addPosition(EclipseEditorTag.CHAMELEON_CATEGORY, tag);
+				} catch (BadLocationException e) {
+					e.printStackTrace();
+				} catch (BadPositionCategoryException e) {
+					e.printStackTrace();
+				}
+			}
+			_tags.clear();
+			return true;
+		}
+		
+		/**
+		 * Drop the buffered tags and locations, and remove the buffered tags from their elements.
+		 */
+		public void discard() {
+			for(EclipseEditorTag tag: _tags) {
+				Element element = tag.getElement();
+				if(element.tag(tag.getName()) == tag) {
+					element.removeTag(tag.getName());
+				}
+			}
+			_tags.clear();
+			_packed.clear();
+		}
+	}
+	
+	/**
+	 * The structural identity of a tag: its name, the class of its element and its location.
+	 */
+	private static class RetiredKey {
+		
+		public RetiredKey(String name, Class<?> elementClass, int offset, int length) {
+			_name = name;
+			_elementClass = elementClass;
+			_offset = offset;
+			_length = length;
+		}
+		
+		private String _name;
+		
+		private Class<?> _elementClass;
+		
+		private int _offset;
+		
+		private int _length;
+		
+		@Override
+		public boolean equals(Object other) {
+			if(! (other instanceof RetiredKey)) {
+				return false;
+			}
+			RetiredKey key = (RetiredKey) other;
+			return _offset == key._offset && _length == key._length && _elementClass == key._elementClass && _name.equals(key._name);
+		}
+		
+		@Override
+		public int hashCode() {
+			return ((_offset * 31 + _length) * 31 + _name.hashCode()) * 31 + _elementClass.hashCode();
+		}
+	}
+	
+	// Sort by offset, and put enclosing tags before the tags they enclose.
+	private static final Comparator<EclipseEditorTag> INSTALL_ORDER = new Comparator<EclipseEditorTag>() {
+		public int compare(EclipseEditorTag first, EclipseEditorTag second) {
+			if(first.getOffset() != second.getOffset()) {
+				return first.getOffset() < second.getOffset() ? -1 : 1;
+			}
+			return first.getLength() > second.getLength() ? -1 : (first.getLength() < second.getLength() ? 1 : 0);
+		}
+	};
+	
 	@Override
 	public Processor clone() {
 		return new EclipseEditorInputProcessor(null);
@@ -97,12 +324,30 @@ public class EclipseEditorInputProcessor extends ProcessorImpl implements InputP
 
 
 	private void setSingleLocation(Element element, int offset, int length, CompilationUnit compilationUnit, String tagType) {
-		ChameleonDocument doc = document(compilationUnit);
+		ParseSession session = _session.get();
+		// The elements of a parse session belong to the document of the session.
+		ChameleonDocument doc = (session != null ? session.document() : document(compilationUnit));
 //		try {
 			if(doc.getLength() == 0) {
 				System.out.println("Empty document.");
 			}
-			if(! element.hasTag(tagType)) {
+			if(EditorTagStore.isPacked(tagType)) {
+				// These locations are not tags of the element, so there is no need to
+				// find the document of the element.
+				if(session != null) {
+					// The location is added to the tag store when the session is finished.
+					session.addPacked(offset, length, element, tagType);
+				} else {
+					doc.tagStore().add(offset, length, element, tagType);
+				}
+			} else if(session != null) {
+				if(! element.hasTag(tagType)) {
+					// The tag is added to the document when the session is finished.
+					EclipseEditorTag tag = session.tag(Math.max(0,offset), Math.max(0,length), element, tagType);
+					element.setTag(tag, tagType);
+					session.add(tag);
+				}
+			} else if(! element.hasTag(tagType)) {
 				Element ancestor = element.farthestAncestor();
 				boolean cleanup = false;
 				if(element != compilationUnit) {
@@ -136,7 +381,9 @@ public class EclipseEditorInputProcessor extends ProcessorImpl implements InputP
 	}
 
 	public void markParseError(int offset, int length, String message,Element element) {
-		ChameleonDocument document = document(element);
+		ParseSession session = _session.get();
+		// A document that is parsed outside the model is not known to the project yet.
+		ChameleonDocument document = (session != null ? session.document() : document(element));
 		String header;
 		int lineNumber;
 		try {
@@ -151,8 +398,13 @@ public class EclipseEditorInputProcessor extends ProcessorImpl implements InputP
 		}
 		//FIXME don't like that all this static code is in ChameleonPresentationReconciler.
 		Map<String,Object> attributes = ChameleonPresentationReconciler.createProblemMarkerMap(header+" "+message);
+		attributes.put(ChameleonPresentationReconciler.SYNTAX_ERROR, Boolean.TRUE);
 		ChameleonPresentationReconciler.setProblemMarkerPosition(attributes, offset, length, document);
-		ChameleonPresentationReconciler.addProblemMarker(attributes, document);
+		if(session != null && session.parseErrors() != null) {
+			session.parseErrors().add(attributes);
+		} else {
+			ChameleonPresentationReconciler.addProblemMarker(attributes, document);
+		}
 	}
 
 }
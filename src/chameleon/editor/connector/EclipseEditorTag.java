@@ -55,6 +55,98 @@ public class EclipseEditorTag extends Position implements Tag {
 		setName(name);
 	}
 	
+	/**
+	 * Initialize a tag that is neither added to the positions of the given document
+	 * nor to the tags of the given element. If view is true, the tag is a view on a
+	 * location of the element that is kept in the EditorTagStore of the document.
+	 * Otherwise, the tag must still be added to the document and to the element, as
+	 * is done at the end of a parse session of the EclipseEditorInputProcessor.
+	 */
+	EclipseEditorTag(ChameleonDocument document, int offset, int length, Element element, String name, boolean view) {
+		super(offset,length);
+		_document = document;
+		_element = element;
+		_view = view;
+		setName(name);
+	}
+	
+	private boolean _view;
+	
+	/**
+	 * Let this tag, which was retired by its document, link the given location to the
+	 * given element. The tag must still be added to the document and to the element.
+	 */
+	void reuse(ChameleonDocument document, int offset, int length, Element element) {
+		_updater = null;
+		_document = document;
+		_element = element;
+		this.offset = offset;
+		this.length = length;
+		isDeleted = false;
+	}
+	
+	// The updater that keeps track of the offset and the length of this tag, if any.
+	EditorTagUpdater _updater;
+	
+	// The indices of the start and the end of this tag in the updater.
+	int _startBoundary;
+	
+	int _endBoundary;
+	
+	/**
+	 * The offset of this tag is resolved from the updater of the document, since the
+	 * field is only updated when the document hands out its positions.
+	 */
+	@Override
+	public int getOffset() {
+		EditorTagUpdater updater = _updater;
+		return updater == null ? offset : updater.offset(this);
+	}
+	
+	@Override
+	public int getLength() {
+		EditorTagUpdater updater = _updater;
+		return updater == null ? length : updater.length(this);
+	}
+	
+	@Override
+	public boolean includes(int index) {
+		if(isDeleted) {
+			return false;
+		}
+		int offset = getOffset();
+		return offset <= index && index < offset + getLength();
+	}
+	
+	@Override
+	public boolean overlapsWith(int rangeOffset, int rangeLength) {
+		if(isDeleted) {
+			return false;
+		}
+		int offset = getOffset();
+		int end = rangeOffset + rangeLength;
+		int thisEnd = offset + getLength();
+		if(rangeLength > 0) {
+			if(getLength() > 0) {
+				return offset < end && rangeOffset < thisEnd;
+			}
+			return rangeOffset <= offset && offset < end;
+		}
+		if(getLength() > 0) {
+			return offset <= rangeOffset && rangeOffset < thisEnd;
+		}
+		return offset == rangeOffset;
+	}
+	
+	/**
+	 * Check whether this tag is a view on a location in an EditorTagStore. Such a tag
+	 * is a snapshot of the location when it was returned by the store, and it is not
+	 * moved when the document changes afterwards.
+	 */
+	public boolean isView() {
+		return _view;
+	}
+	
 	private ChameleonDocument _document;
 	
 	public ChameleonDocument getDocument() {
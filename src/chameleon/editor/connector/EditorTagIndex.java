@@ -0,0 +1,355 @@
+package chameleon.editor.connector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jface.text.Position;
+import org.rejuse.predicate.Predicate;
+
+import chameleon.editor.editors.ChameleonDocument;
+
+/**
+ * An index over the editor tags of a document that answers which tags contain an offset
+ * and which tags overlap a region in O(log n + k) time, with n the number of tags and
+ * k the number of reported tags.
+ *
+ * The tags are kept in an array sorted by offset. That array is the in-order traversal of
+ * an implicit balanced binary search tree: the root of the subtree over [low, high) is the
+ * element at the middle. Every node is augmented with the tag in its subtree that has the
+ * largest end offset, so subtrees that end before the queried offset are skipped entirely.
+ *
+ * The index does not store offsets. The offsets of the tags are read from the tags, which are
+ * moved by the position updater of the document. That moves all tags in the same way, so a
+ * change of the document keeps the tags sorted, and does not change which tag of a subtree
+ * ends last, apart from ties with empty tags, which are never reported. The exceptions are the
+ * tags that a change makes empty, and the tags that cover exactly the replaced text, since those
+ * keep their start while the other tags at that offset move. The updater reports them, and they
+ * are merged into the array again, like added tags. Therefore, the index stays valid when the
+ * document changes.
+ *
+ * An index can be restricted to the tags of a single kind, such as
+ * EclipseEditorTag.CROSSREFERENCE_TAG. Queries on such an index only visit
+ * tags of that kind.
+ *
+ * The index only contains the tags that are positions of the document. The locations in the
+ * tag store of the document are not kept as tags, so the queries for them are passed on to the
+ * tag store, which only creates tags for the locations it reports.
+ *
+ * The index is built lazily from the editor tags of the document. Afterwards, the document
+ * tells the index which tags are added and removed. Those changes are merged into the array
+ * at the next query, which takes linear time instead of collecting and sorting all tags again.
+ * The tags that have been deleted by the position updaters are dropped at the same time.
+ * The index only has to be invalidated when all tags of the document are replaced.
+ */
+public class EditorTagIndex {
+
+	/**
+	 * Create an index over all editor tags of the given document.
+	 */
+	public EditorTagIndex(ChameleonDocument document) {
+		this(document, null);
+	}
+
+	/**
+	 * Create an index over the editor tags with the given name in the given document.
+	 * If the name is null, all editor tags are indexed.
+	 */
+	public EditorTagIndex(ChameleonDocument document, String tagName) {
+		_document = document;
+		_tagName = tagName;
+	}
+
+	private ChameleonDocument _document;
+
+	public ChameleonDocument document() {
+		return _document;
+	}
+
+	private String _tagName;
+
+	/**
+	 * The name of the editor tags in this index. Null if this index contains all editor tags.
+	 */
+	public String tagName() {
+		return _tagName;
+	}
+
+	// The tags sorted by offset. Null if the index must be rebuilt.
+	private EclipseEditorTag[] _tags;
+
+	// _maxEnd[i] is the tag with the largest end offset in the subtree that has element i as its root.
+	private EclipseEditorTag[] _maxEnd;
+
+	// The tags that have been added since the array was last brought up to date.
+	private List<EclipseEditorTag> _added = new ArrayList<EclipseEditorTag>();
+
+	// The tags that have been removed since the array was last brought up to date.
+	private Map<EclipseEditorTag, EclipseEditorTag> _removed = new IdentityHashMap<EclipseEditorTag, EclipseEditorTag>();
+
+	// The tags that have been moved differently from the other tags since the array was last
+	// brought up to date.
+	private Map<EclipseEditorTag, EclipseEditorTag> _moved = new IdentityHashMap<EclipseEditorTag, EclipseEditorTag>();
+
+	// The number of tags that the position updaters of the document had deleted when
+	// the array was last brought up to date.
+	private int _nbDeletions;
+
+	/**
+	 * Discard the index. It will be rebuilt by the next query.
+	 */
+	public synchronized void invalidate() {
+		_tags = null;
+		_maxEnd = null;
+		_added.clear();
+		_removed.clear();
+		_moved.clear();
+	}
+
+	/**
+	 * Add the given tag, which has been added to the document, to this index.
+	 * Nothing happens if the tag does not belong in this index.
+	 */
+	public synchronized void add(EclipseEditorTag tag) {
+		if(_tags != null && (_tagName == null || _tagName.equals(tag.getName()))) {
+			if(_removed.remove(tag) == null) {
+				_added.add(tag);
+			}
+		}
+	}
+
+	/**
+	 * Remove the given tag, which has been removed from the document, from this index.
+	 */
+	public synchronized void remove(EclipseEditorTag tag) {
+		if(_tags != null && (_tagName == null || _tagName.equals(tag.getName()))) {
+			_removed.put(tag, tag);
+		}
+	}
+
+	/**
+	 * The given tag, which is in the document, has been moved differently from the other tags,
+	 * so its place in this index must be looked up again.
+	 */
+	public synchronized void move(EclipseEditorTag tag) {
+		if(_tags != null && (_tagName == null || _tagName.equals(tag.getName()))) {
+			_moved.put(tag, tag);
+		}
+	}
+
+	private void ensureBuilt() {
+		if(_tags == null) {
+			_nbDeletions = document().nbDeletedTags();
+			build(collect());
+		} else if(! _added.isEmpty() || ! _removed.isEmpty() || ! _moved.isEmpty() || _nbDeletions != document().nbDeletedTags()) {
+			_nbDeletions = document().nbDeletedTags();
+			merge();
+		}
+	}
+
+	/**
+	 * Drop the removed and the deleted tags from the array, and merge the added and the moved
+	 * tags into it. The other tags have been moved in the same way, so they are still sorted.
+	 */
+	private void merge() {
+		EclipseEditorTag[] added = new EclipseEditorTag[_added.size() + _moved.size()];
+		int nbAdded = 0;
+		for(EclipseEditorTag tag: _added) {
+			if(! tag.isDeleted() && ! _removed.containsKey(tag) && ! _moved.containsKey(tag)) {
+				added[nbAdded++] = tag;
+			}
+		}
+		for(EclipseEditorTag tag: _moved.keySet()) {
+			if(! tag.isDeleted() && ! _removed.containsKey(tag)) {
+				added[nbAdded++] = tag;
+			}
+		}
+		Arrays.sort(added, 0, nbAdded, OFFSET_COMPARATOR);
+		EclipseEditorTag[] merged = new EclipseEditorTag[_tags.length + nbAdded];
+		int size = 0;
+		int next = 0;
+		for(EclipseEditorTag tag: _tags) {
+			if(tag.isDeleted() || _removed.containsKey(tag) || _moved.containsKey(tag)) {
+				continue;
+			}
+			while(next < nbAdded && added[next].getOffset() < tag.getOffset()) {
+				merged[size++] = added[next++];
+			}
+			merged[size++] = tag;
+		}
+		while(next < nbAdded) {
+			merged[size++] = added[next++];
+		}
+		_added.clear();
+		_removed.clear();
+		_moved.clear();
+		EclipseEditorTag[] result = new EclipseEditorTag[size];
+		System.arraycopy(merged, 0, result, 0, size);
+		setTags(result);
+	}
+
+	/**
+	 * Return the tags that must be indexed.
+	 */
+	protected List<EclipseEditorTag> collect() {
+		List<EclipseEditorTag> result = new ArrayList<EclipseEditorTag>();
+		if(isPacked()) {
+			return result;
+		}
+		for(EclipseEditorTag tag: document().positionTags()) {
+			if(! tag.isDeleted() && (_tagName == null || _tagName.equals(tag.getName()))) {
+				result.add(tag);
+			}
+		}
+		return result;
+	}
+
+	private void build(List<EclipseEditorTag> tags) {
+		EclipseEditorTag[] sorted = tags.toArray(new EclipseEditorTag[tags.size()]);
+		Arrays.sort(sorted, OFFSET_COMPARATOR);
+		setTags(sorted);
+	}
+
+	private void setTags(EclipseEditorTag[] sorted) {
+		_tags = sorted;
+		_maxEnd = new EclipseEditorTag[sorted.length];
+		computeMaxEnd(0, sorted.length);
+	}
+
+	/**
+	 * Return the tag with the largest end in the subtree over [low, high). Of the tags with the
+	 * same end, an empty one is chosen, since text inserted at its end moves it and not the others.
+	 */
+	private EclipseEditorTag computeMaxEnd(int low, int high) {
+		if(low >= high) {
+			return null;
+		}
+		int middle = (low + high) >>> 1;
+		EclipseEditorTag result = _tags[middle];
+		result = last(result, computeMaxEnd(low, middle));
+		result = last(result, computeMaxEnd(middle + 1, high));
+		_maxEnd[middle] = result;
+		return result;
+	}
+
+	private static EclipseEditorTag last(EclipseEditorTag first, EclipseEditorTag second) {
+		if(second == null) {
+			return first;
+		}
+		int firstEnd = end(first);
+		int secondEnd = end(second);
+		if(firstEnd != secondEnd) {
+			return firstEnd > secondEnd ? first : second;
+		}
+		return second.getLength() == 0 ? second : first;
+	}
+
+	private static int end(Position position) {
+		return position.getOffset() + position.getLength();
+	}
+
+	private static final Comparator<Position> OFFSET_COMPARATOR = new Comparator<Position>() {
+		public int compare(Position first, Position second) {
+			return first.getOffset() < second.getOffset() ? -1 : (first.getOffset() > second.getOffset() ? 1 : 0);
+		}
+	};
+
+	/**
+	 * Check whether the tags of this index are kept in the tag store of the document.
+	 */
+	private boolean isPacked() {
+		return _tagName != null && EditorTagStore.isPacked(_tagName);
+	}
+
+	/**
+	 * Return the number of tags in this index.
+	 */
+	public synchronized int size() {
+		if(isPacked()) {
+			return document().tagStore().size(_tagName);
+		}
+		ensureBuilt();
+		int result = _tags.length;
+		if(_tagName == null) {
+			result += document().tagStore().size();
+		}
+		return result;
+	}
+
+	/**
+	 * Add the tags that contain the given offset and satisfy the given predicate to
+	 * the given collection. A tag contains an offset if the offset is at least the offset
+	 * of the tag and smaller than the end of the tag.
+	 */
+	public synchronized void tagsAt(int offset, Predicate<EclipseEditorTag> predicate, Collection<EclipseEditorTag> result) throws Exception {
+		query(offset, offset + 1, predicate, result);
+	}
+
+	/**
+	 * Add the tags that overlap the region with the given offset and length and satisfy
+	 * the given predicate to the given collection. A region with length 0 is treated as
+	 * the single character at its offset.
+	 */
+	public synchronized void tagsOverlapping(int offset, int length, Predicate<EclipseEditorTag> predicate, Collection<EclipseEditorTag> result) throws Exception {
+		query(offset, offset + Math.max(1, length), predicate, result);
+	}
+
+	/**
+	 * Add the tags of this index that overlap [start, end) and satisfy the given predicate
+	 * to the given collection.
+	 */
+	private void query(int start, int end, Predicate<EclipseEditorTag> predicate, Collection<EclipseEditorTag> result) throws Exception {
+		if(! isPacked()) {
+			ensureBuilt();
+			collect(start, end, 0, _tags.length, predicate, result);
+		}
+		if(_tagName == null || isPacked()) {
+			document().tagStore().tagsOverlapping(start, end, _tagName, predicate, result);
+		}
+	}
+
+	/**
+	 * Return the smallest tag that contains the given offset and satisfies the given predicate.
+	 * Return null if there is no such tag. Ties are broken as in EclipseEditorTag.lengthComparator.
+	 */
+	public synchronized EclipseEditorTag smallestTagAt(int offset, Predicate<EclipseEditorTag> predicate) throws Exception {
+		List<EclipseEditorTag> tags = new ArrayList<EclipseEditorTag>();
+		tagsAt(offset, predicate, tags);
+		EclipseEditorTag result = null;
+		for(EclipseEditorTag tag: tags) {
+			if(result == null || EclipseEditorTag.lengthComparator.compare(tag, result) < 0) {
+				result = tag;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Collect the tags in the subtree over [low, high) that overlap [start, end).
+	 */
+	private void collect(int start, int end, int low, int high, Predicate<EclipseEditorTag> predicate, Collection<EclipseEditorTag> result) throws Exception {
+		while(low < high) {
+			int middle = (low + high) >>> 1;
+			// Nothing in this subtree ends after the start of the region.
+			if(end(_maxEnd[middle]) <= start) {
+				return;
+			}
+			EclipseEditorTag tag = _tags[middle];
+			if(tag.getOffset() >= end) {
+				// The root and its right subtree start after the region.
+				high = middle;
+			} else {
+				if(end(tag) > start && tag.getLength() > 0 && ! tag.isDeleted() && (predicate == null || predicate.eval(tag))) {
+					result.add(tag);
+				}
+				collect(start, end, low, middle, predicate, result);
+				low = middle + 1;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,550 @@
+package chameleon.editor.connector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IPositionUpdater;
+import org.rejuse.predicate.Predicate;
+
+import chameleon.core.element.Element;
+import chameleon.editor.editors.ChameleonDocument;
+
+/**
+ * A packed store for the locations of a document that are not needed as tags of their element.
+ *
+ * The cross-reference and modifier locations of an element cover the same text as its
+ * ALL_TAG, and are only used to look up and present the text of the document. Instead of
+ * allocating an EclipseEditorTag for each of them, which is registered as a position in the
+ * document and as a tag in the element, such a location is stored as an entry in parallel int
+ * arrays holding the offset, the length, the kind and the id of the element.
+ *
+ * An EclipseEditorTag view of an entry is only created when the entry is returned by a query,
+ * and the store does not keep it. A view is a snapshot: it is not moved when the document
+ * changes afterwards. So the store never holds more than the packed arrays.
+ *
+ * The store answers overlap queries itself, in the same way as an EditorTagIndex: it keeps the
+ * indices of its entries sorted by offset, as an implicit balanced search tree in which every node
+ * knows the entry of its subtree that ends last. Entries that are added or removed are merged
+ * into that array at the next query.
+ *
+ * The store is also the position updater that moves its entries when the document changes.
+ * The changes are only recorded, and are applied to the entries in a single pass when the
+ * entries are read. So typing does not visit every entry on every keystroke.
+ */
+public class EditorTagStore implements IPositionUpdater {
+
+	/**
+	 * The names of the tags that are kept in an EditorTagStore instead of as positions of the document.
+	 */
+	public static boolean isPacked(String tagName) {
+		return EclipseEditorTag.CROSSREFERENCE_TAG.equals(tagName) || EclipseEditorTag.MODIFIER_TAG.equals(tagName);
+	}
+
+	public EditorTagStore(ChameleonDocument document) {
+		_document = document;
+	}
+
+	private ChameleonDocument _document;
+
+	public ChameleonDocument document() {
+		return _document;
+	}
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	// The kind of an entry that has been removed.
+	private static final int REMOVED = -1;
+
+	private int[] _offsets = new int[INITIAL_CAPACITY];
+
+	private int[] _lengths = new int[INITIAL_CAPACITY];
+
+	private int[] _kinds = new int[INITIAL_CAPACITY];
+
+	private int[] _elementIds = new int[INITIAL_CAPACITY];
+
+	// The number of used entries, including removed ones.
+	private int _size;
+
+	private int _nbRemoved;
+
+	// The tag names, indexed by kind.
+	private List<String> _kindNames = new ArrayList<String>();
+
+	// The elements, indexed by element id.
+	private List<Element> _elements = new ArrayList<Element>();
+
+	private Map<Element, Integer> _ids = new IdentityHashMap<Element, Integer>();
+
+	// For every element id, a bit mask with the kinds of the entries of the element.
+	private int[] _kindMasks = new int[INITIAL_CAPACITY];
+
+	// The indices of the entries sorted by offset. Null if it must be rebuilt.
+	private int[] _sorted;
+
+	// _maxEnd[i] is the entry with the largest end in the subtree that has _sorted[i] as its root.
+	private int[] _maxEnd;
+
+	// The number of entries when _sorted was last brought up to date. The entries that were
+	// added later are not in it yet.
+	private int _sortedSize;
+
+	// True if entries have been removed since _sorted was last brought up to date.
+	private boolean _sortedRemovals;
+
+	// The entries that have been moved differently from the other entries since _sorted was
+	// last brought up to date: the entries that became empty, and the entries that covered
+	// exactly the replaced text. They are merged into _sorted again, like new entries.
+	private int[] _moved = new int[INITIAL_CAPACITY];
+
+	private int _nbMoved;
+
+	// The changes of the document that have not yet been applied to the entries,
+	// as triples of an offset, a deleted length and an inserted length.
+	private int[] _changes = new int[3 * INITIAL_CAPACITY];
+
+	private int _nbChanges;
+
+	// The number of changes that are recorded before they are applied anyway.
+	private static final int MAX_CHANGES = 256;
+
+	/**
+	 * Add a location with the given offset and length and the given tag name for the given element.
+	 * Nothing happens if the element already has a location with that name.
+	 *
+	 * @return True if the location was added.
+	 */
+	public synchronized boolean add(int offset, int length, Element element, String name) {
+		// The location refers to the current text. Applying the changes can compact
+		// the entries, so it is done before the id of the element is looked up.
+		applyChanges();
+		int kind = kind(name);
+		int id = id(element);
+		if((_kindMasks[id] & (1 << kind)) != 0) {
+			return false;
+		}
+		_kindMasks[id] |= 1 << kind;
+		ensureCapacity(_size + 1);
+		_offsets[_size] = Math.max(0, offset);
+		_lengths[_size] = Math.max(0, length);
+		_kinds[_size] = kind;
+		_elementIds[_size] = id;
+		_size++;
+		return true;
+	}
+
+	/**
+	 * Check whether the given element has a location with the given tag name in this store.
+	 */
+	public synchronized boolean contains(Element element, String name) {
+		Integer id = _ids.get(element);
+		int kind = _kindNames.indexOf(name);
+		return id != null && kind >= 0 && (_kindMasks[id] & (1 << kind)) != 0;
+	}
+
+	private int kind(String name) {
+		int result = _kindNames.indexOf(name);
+		if(result < 0) {
+			result = _kindNames.size();
+			_kindNames.add(name);
+		}
+		return result;
+	}
+
+	private int id(Element element) {
+		Integer result = _ids.get(element);
+		if(result == null) {
+			result = _elements.size();
+			_elements.add(element);
+			_ids.put(element, result);
+			if(result >= _kindMasks.length) {
+				_kindMasks = grow(_kindMasks, result + 1);
+			}
+			_kindMasks[result] = 0;
+		}
+		return result;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if(capacity > _offsets.length) {
+			_offsets = grow(_offsets, capacity);
+			_lengths = grow(_lengths, capacity);
+			_kinds = grow(_kinds, capacity);
+			_elementIds = grow(_elementIds, capacity);
+		}
+	}
+
+	private static int[] grow(int[] array, int capacity) {
+		int[] result = new int[Math.max(capacity, array.length * 2)];
+		System.arraycopy(array, 0, result, 0, array.length);
+		return result;
+	}
+
+	/**
+	 * Return the number of locations in this store.
+	 */
+	public synchronized int size() {
+		applyChanges();
+		return _size - _nbRemoved;
+	}
+
+	/**
+	 * Remove all locations.
+	 */
+	public synchronized void clear() {
+		for(int i = 0; i < _size; i++) {
+			if(_kinds[i] != REMOVED) {
+				remove(i);
+			}
+		}
+		_size = 0;
+		_nbRemoved = 0;
+		_nbChanges = 0;
+		_sorted = null;
+		_maxEnd = null;
+		_nbMoved = 0;
+		_kindNames.clear();
+		_elements.clear();
+		_ids.clear();
+		if(_offsets.length > INITIAL_CAPACITY) {
+			_offsets = new int[INITIAL_CAPACITY];
+			_lengths = new int[INITIAL_CAPACITY];
+			_kinds = new int[INITIAL_CAPACITY];
+			_elementIds = new int[INITIAL_CAPACITY];
+			_kindMasks = new int[INITIAL_CAPACITY];
+		}
+	}
+
+	/**
+	 * Remove the locations that lie within the region with the given offset and length.
+	 * This must be done before the element that covers that region is parsed again.
+	 */
+	public synchronized void removeEnclosedBy(int offset, int length) {
+		applyChanges();
+		int end = offset + length;
+		for(int i = 0; i < _size; i++) {
+			if(_kinds[i] != REMOVED && _offsets[i] >= offset && _offsets[i] + _lengths[i] <= end) {
+				remove(i);
+			}
+		}
+		compactIfNeeded();
+	}
+
+	private void remove(int index) {
+		_kindMasks[_elementIds[index]] &= ~(1 << _kinds[index]);
+		_kinds[index] = REMOVED;
+		_nbRemoved++;
+		_sortedRemovals = true;
+	}
+
+	/**
+	 * Drop the removed entries and the elements that no longer have entries
+	 * once at least half of the entries have been removed.
+	 */
+	private void compactIfNeeded() {
+		if(_nbRemoved == 0 || _nbRemoved * 2 < _size) {
+			return;
+		}
+		List<Element> elements = new ArrayList<Element>();
+		Map<Element, Integer> ids = new IdentityHashMap<Element, Integer>();
+		int[] kindMasks = new int[Math.max(INITIAL_CAPACITY, _elements.size())];
+		int size = 0;
+		for(int i = 0; i < _size; i++) {
+			if(_kinds[i] != REMOVED) {
+				Element element = _elements.get(_elementIds[i]);
+				Integer id = ids.get(element);
+				if(id == null) {
+					id = elements.size();
+					elements.add(element);
+					ids.put(element, id);
+				}
+				kindMasks[id] |= 1 << _kinds[i];
+				_offsets[size] = _offsets[i];
+				_lengths[size] = _lengths[i];
+				_kinds[size] = _kinds[i];
+				_elementIds[size] = id;
+				size++;
+			}
+		}
+		_size = size;
+		// The indices of the entries have changed.
+		_sorted = null;
+		_maxEnd = null;
+		_nbMoved = 0;
+		_nbRemoved = 0;
+		_elements = elements;
+		_ids = ids;
+		_kindMasks = kindMasks;
+	}
+
+	/**
+	 * Return the number of locations with the given tag name in this store.
+	 */
+	public synchronized int size(String name) {
+		applyChanges();
+		int kind = _kindNames.indexOf(name);
+		int result = 0;
+		for(int i = 0; i < _size; i++) {
+			if(kind >= 0 && _kinds[i] == kind) {
+				result++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Return a view on every location in this store, sorted by offset. The views are
+	 * created for this call only.
+	 */
+	public synchronized List<EclipseEditorTag> tags() {
+		ensureSorted();
+		List<EclipseEditorTag> result = new ArrayList<EclipseEditorTag>(_sorted.length);
+		for(int entry: _sorted) {
+			result.add(view(entry));
+		}
+		return result;
+	}
+
+	/**
+	 * Add views on the locations with the given tag name that overlap the region from start
+	 * to end and satisfy the given predicate to the given collection. If the name is null,
+	 * the locations of every kind are considered. Empty locations are never reported. The views
+	 * are created for this query only.
+	 */
+	public synchronized void tagsOverlapping(int start, int end, String name, Predicate<EclipseEditorTag> predicate, Collection<EclipseEditorTag> result) throws Exception {
+		int kind = -1;
+		if(name != null) {
+			kind = _kindNames.indexOf(name);
+			if(kind < 0) {
+				return;
+			}
+		}
+		ensureSorted();
+		collect(start, end, kind, 0, _sorted.length, predicate, result);
+	}
+
+	/**
+	 * Collect the entries in the subtree over [low, high) that overlap [start, end).
+	 */
+	private void collect(int start, int end, int kind, int low, int high, Predicate<EclipseEditorTag> predicate, Collection<EclipseEditorTag> result) throws Exception {
+		while(low < high) {
+			int middle = (low + high) >>> 1;
+			// Nothing in this subtree ends after the start of the region.
+			if(end(_maxEnd[middle]) <= start) {
+				return;
+			}
+			int entry = _sorted[middle];
+			if(_offsets[entry] >= end) {
+				// The root and its right subtree start after the region.
+				high = middle;
+			} else {
+				if(end(entry) > start && _lengths[entry] > 0 && (kind < 0 || _kinds[entry] == kind)) {
+					EclipseEditorTag view = view(entry);
+					if(predicate == null || predicate.eval(view)) {
+						result.add(view);
+					}
+				}
+				collect(start, end, kind, low, middle, predicate, result);
+				low = middle + 1;
+			}
+		}
+	}
+
+	private EclipseEditorTag view(int index) {
+		return new EclipseEditorTag(document(), _offsets[index], _lengths[index], _elements.get(_elementIds[index]), _kindNames.get(_kinds[index]), true);
+	}
+
+	private int end(int index) {
+		return _offsets[index] + _lengths[index];
+	}
+
+	/**
+	 * Bring the sorted array of entries up to date. The entries that were already in it have
+	 * been moved in the same way, so they are still sorted. The removed entries are dropped,
+	 * and the new entries are sorted and merged into the array.
+	 */
+	private void ensureSorted() {
+		applyChanges();
+		if(_sorted == null) {
+			_sorted = sortedEntries(0, new boolean[_size]);
+		} else if(_sortedSize != _size || _sortedRemovals || _nbMoved > 0) {
+			boolean[] moved = new boolean[_size];
+			for(int i = 0; i < _nbMoved; i++) {
+				moved[_moved[i]] = true;
+			}
+			int[] added = sortedEntries(_sortedSize, moved);
+			int[] merged = new int[_sorted.length + added.length];
+			int size = 0;
+			int next = 0;
+			for(int entry: _sorted) {
+				if(_kinds[entry] == REMOVED || moved[entry]) {
+					continue;
+				}
+				while(next < added.length && _offsets[added[next]] < _offsets[entry]) {
+					merged[size++] = added[next++];
+				}
+				merged[size++] = entry;
+			}
+			while(next < added.length) {
+				merged[size++] = added[next++];
+			}
+			_sorted = new int[size];
+			System.arraycopy(merged, 0, _sorted, 0, size);
+		} else {
+			return;
+		}
+		_sortedSize = _size;
+		_sortedRemovals = false;
+		_nbMoved = 0;
+		_maxEnd = new int[_sorted.length];
+		computeMaxEnd(0, _sorted.length);
+	}
+
+	/**
+	 * Return the entries that have not been removed and that come from the given index on
+	 * or have been moved, sorted by offset.
+	 */
+	private int[] sortedEntries(int from, boolean[] moved) {
+		long[] keys = new long[_size - from + _nbMoved];
+		int size = 0;
+		for(int i = from; i < _size; i++) {
+			if(_kinds[i] != REMOVED) {
+				keys[size++] = ((long)_offsets[i] << 32) | i;
+			}
+		}
+		if(_nbMoved > 0) {
+			// An entry can have been moved more than once, so the flags are used instead of _moved.
+			for(int i = 0; i < from; i++) {
+				if(moved[i] && _kinds[i] != REMOVED) {
+					keys[size++] = ((long)_offsets[i] << 32) | i;
+				}
+			}
+		}
+		Arrays.sort(keys, 0, size);
+		int[] result = new int[size];
+		for(int i = 0; i < size; i++) {
+			result[i] = (int) keys[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Return the entry with the largest end in the subtree over [low, high), or -1 if it is empty.
+	 * Of the entries with the same end, an empty one is chosen, since text inserted at its end
+	 * moves it and not the others.
+	 */
+	private int computeMaxEnd(int low, int high) {
+		if(low >= high) {
+			return -1;
+		}
+		int middle = (low + high) >>> 1;
+		int result = _sorted[middle];
+		result = last(result, computeMaxEnd(low, middle));
+		result = last(result, computeMaxEnd(middle + 1, high));
+		_maxEnd[middle] = result;
+		return result;
+	}
+
+	private int last(int first, int second) {
+		if(second < 0) {
+			return first;
+		}
+		if(end(first) != end(second)) {
+			return end(first) > end(second) ? first : second;
+		}
+		return _lengths[second] == 0 ? second : first;
+	}
+
+	/**
+	 * Record the given change of the document. The locations are moved when they are read.
+	 */
+	public synchronized void update(DocumentEvent event) {
+		if(_size == _nbRemoved) {
+			return;
+		}
+		if(3 * (_nbChanges + 1) > _changes.length) {
+			_changes = grow(_changes, 3 * (_nbChanges + 1));
+		}
+		_changes[3 * _nbChanges] = event.getOffset();
+		_changes[3 * _nbChanges + 1] = event.getLength();
+		_changes[3 * _nbChanges + 2] = event.getText() == null ? 0 : event.getText().length();
+		_nbChanges++;
+		if(_nbChanges >= MAX_CHANGES) {
+			applyChanges();
+		}
+	}
+
+	/**
+	 * Move the locations for the recorded changes of the document, in the same way as the
+	 * EditorTagUpdater moves the editor tags: text inserted at the start of a location
+	 * moves it, text inserted at its end does not extend it, a location that covers exactly
+	 * the replaced text covers the new text, and a location that lies strictly inside the
+	 * deleted text is removed. Apart from the locations that cover exactly the replaced text
+	 * or become empty, all entries are moved in the same way, so the sorted array of entries
+	 * stays sorted.
+	 */
+	public synchronized void applyChanges() {
+		if(_nbChanges == 0) {
+			return;
+		}
+		for(int i = 0; i < _size; i++) {
+			if(_kinds[i] == REMOVED) {
+				continue;
+			}
+			int start = _offsets[i];
+			int end = start + _lengths[i];
+			boolean moved = false;
+			for(int c = 0; c < _nbChanges && start >= 0; c++) {
+				int offset = _changes[3 * c];
+				int deleted = _changes[3 * c + 1];
+				int inserted = _changes[3 * c + 2];
+				if(deleted > 0) {
+					int deletedEnd = offset + deleted;
+					if(start > offset && end < deletedEnd) {
+						remove(i);
+						start = -1;
+						continue;
+					}
+					if(start == offset && end == deletedEnd) {
+						end = offset + inserted;
+						moved = true;
+						continue;
+					}
+					boolean empty = (start == end);
+					start = start <= offset ? start : (start >= deletedEnd ? start - deleted : offset);
+					end = end <= offset ? end : (end >= deletedEnd ? end - deleted : offset);
+					if(start == end && ! empty) {
+						moved = true;
+					}
+				}
+				if(inserted > 0) {
+					boolean empty = (start == end);
+					if(start >= offset) {
+						start += inserted;
+					}
+					if(end > offset || (end == offset && empty)) {
+						end += inserted;
+					}
+				}
+			}
+			if(start >= 0) {
+				_offsets[i] = start;
+				_lengths[i] = end - start;
+				if(moved) {
+					if(_nbMoved == _moved.length) {
+						_moved = grow(_moved, _nbMoved + 1);
+					}
+					_moved[_nbMoved++] = i;
+				}
+			}
+		}
+		_nbChanges = 0;
+		compactIfNeeded();
+	}
+
+}
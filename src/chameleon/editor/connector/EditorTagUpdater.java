@@ -0,0 +1,560 @@
+package chameleon.editor.connector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import org.eclipse.jface.text.BadPositionCategoryException;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IPositionUpdater;
+import org.eclipse.jface.text.Position;
+
+import chameleon.editor.editors.ChameleonDocument;
+
+/**
+ * The position updater of the editor tags of a document. A DefaultPositionUpdater visits
+ * every tag on every change of the document. This updater handles a change in O(log n) time,
+ * with n the number of tags, apart from the tags whose boundaries lie in deleted text.
+ *
+ * The tags are moved in the same way as by a DefaultPositionUpdater. A tag that lies strictly
+ * inside the deleted text is deleted and removed from the document. A tag that covers exactly
+ * the replaced text covers the new text. Text inserted at the start of a tag moves it, and text
+ * inserted at its end does not extend it.
+ *
+ * The start and the end of every tag are boundaries, which are kept in an array sorted by offset.
+ * Instead of its offset, the array stores the distance of every boundary to the previous one
+ * in a Fenwick tree, so the offset of a boundary is a prefix sum. Inserting text moves all
+ * boundaries after the insertion, which only changes the distance of the first of them.
+ *
+ * The offsets of the tags are resolved from the tree when they are read. The offset and length
+ * fields of the tags are only written back by materialize(), which the document does before
+ * it hands out its positions or lets Eclipse look them up.
+ *
+ * The tree is built lazily at the first change of the document. Tags that are added afterwards
+ * are kept in a list of pending tags, whose fields are moved directly on every change, until there
+ * are so many of them that the tree is built again. Removing a tag does not require a rebuild:
+ * its boundaries stay in the tree as anchors that belong to no tag.
+ */
+public class EditorTagUpdater implements IPositionUpdater {
+
+	public EditorTagUpdater(ChameleonDocument document) {
+		_document = document;
+	}
+
+	private ChameleonDocument _document;
+
+	public ChameleonDocument document() {
+		return _document;
+	}
+
+	// The tags in the tree. Null if the tree must be built before it is changed.
+	private EclipseEditorTag[] _tags;
+
+	// The tag of every boundary, indexed by the position of the boundary in the sorted order.
+	private int[] _boundaryTags;
+
+	private boolean[] _isEnd;
+
+	// The distance of every boundary to the previous one, and the Fenwick tree over those distances.
+	private int[] _deltas;
+
+	private int[] _tree;
+
+	// True if the fields of the tags do not reflect the tree.
+	private boolean _dirty;
+
+	// The tags that were added after the tree was built. Their fields are always up to date.
+	private List<EclipseEditorTag> _pending = new ArrayList<EclipseEditorTag>();
+
+	// The number of pending tags below which the tree is not built again.
+	private static final int MIN_PENDING = 64;
+
+	// The number of tags that were deleted because their text was deleted.
+	private int _nbDeletions;
+
+	// The tags that the current change has deleted, and the tags that it has made empty or that
+	// covered exactly the replaced text. The document is told about them after the lock on this
+	// updater has been released, since the indexes read the offsets of the tags from this updater
+	// while holding their own locks.
+	private List<EclipseEditorTag> _deleted = new ArrayList<EclipseEditorTag>();
+
+	private List<EclipseEditorTag> _reshaped = new ArrayList<EclipseEditorTag>();
+
+	// The tags in the tree that covered exactly the text replaced by the current change.
+	// Their starts do not move when the new text is inserted.
+	private List<EclipseEditorTag> _exact = new ArrayList<EclipseEditorTag>();
+
+	/**
+	 * Return the number of tags that this updater has deleted because their text
+	 * was deleted. The indexes over the tags use it to find out that they contain
+	 * deleted tags.
+	 */
+	public synchronized int nbDeletions() {
+		return _nbDeletions;
+	}
+
+	/**
+	 * Handle the change of the document. The deleted tags are removed from the document, and
+	 * the indexes over the tags are told which tags have changed shape.
+	 */
+	public void update(DocumentEvent event) {
+		List<EclipseEditorTag> deleted;
+		List<EclipseEditorTag> reshaped;
+		synchronized(this) {
+			change(event);
+			if(_deleted.isEmpty() && _reshaped.isEmpty()) {
+				return;
+			}
+			deleted = _deleted;
+			reshaped = _reshaped;
+			_deleted = new ArrayList<EclipseEditorTag>();
+			_reshaped = new ArrayList<EclipseEditorTag>();
+		}
+		for(EclipseEditorTag tag: reshaped) {
+			document().tagMoved(tag);
+		}
+		for(EclipseEditorTag tag: deleted) {
+			try {
+				document().removePosition(EclipseEditorTag.CHAMELEON_CATEGORY, tag);
+			} catch (BadPositionCategoryException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void change(DocumentEvent event) {
+		ensureBuilt();
+		int offset = event.getOffset();
+		int inserted = event.getText() == null ? 0 : event.getText().length();
+		if(! _pending.isEmpty()) {
+			updatePending(offset, event.getLength(), inserted);
+		}
+		if(_deltas.length == 0) {
+			return;
+		}
+		if(event.getLength() > 0) {
+			delete(offset, event.getLength());
+		}
+		if(inserted > 0) {
+			insert(offset, inserted);
+		}
+		_exact.clear();
+		_dirty = true;
+	}
+
+	/**
+	 * Add the given tag, which has just been added to the document. If the tree has been built,
+	 * the tag is pending until the tree is built again, which happens once the number of pending
+	 * tags is a fixed fraction of the number of tags in the tree. So the cost of building the
+	 * tree is spread over the tags that were added.
+	 */
+	public synchronized void add(EclipseEditorTag tag) {
+		if(_tags != null) {
+			_pending.add(tag);
+			if(_pending.size() > Math.max(MIN_PENDING, _tags.length / 4)) {
+				invalidate();
+			}
+		}
+	}
+
+	/**
+	 * Move the fields of the pending tags in the same way as the tree moves its boundaries.
+	 */
+	private void updatePending(int offset, int deleted, int inserted) {
+		int end = offset + deleted;
+		Iterator<EclipseEditorTag> iterator = _pending.iterator();
+		while(iterator.hasNext()) {
+			EclipseEditorTag tag = iterator.next();
+			if(tag.isDeleted()) {
+				iterator.remove();
+				continue;
+			}
+			int start = tag.offset;
+			int stop = tag.offset + tag.length;
+			if(deleted > 0) {
+				if(start > offset && stop < end) {
+					tag.offset = offset;
+					tag.length = 0;
+					tag.delete();
+					_nbDeletions++;
+					_deleted.add(tag);
+					iterator.remove();
+					continue;
+				}
+				if(start == offset && stop == end) {
+					// The tag covers the text that replaces its text.
+					tag.length = inserted;
+					_reshaped.add(tag);
+					continue;
+				}
+				boolean empty = (start == stop);
+				start = start <= offset ? start : (start >= end ? start - deleted : offset);
+				stop = stop <= offset ? stop : (stop >= end ? stop - deleted : offset);
+				if(start == stop && ! empty) {
+					_reshaped.add(tag);
+				}
+			}
+			if(inserted > 0) {
+				// Text inserted at the end of a tag does not extend it, unless the tag is empty.
+				boolean empty = (start == stop);
+				if(start >= offset) {
+					start += inserted;
+				}
+				if(stop > offset || (stop == offset && empty)) {
+					stop += inserted;
+				}
+			}
+			tag.offset = start;
+			tag.length = stop - start;
+		}
+	}
+
+	/**
+	 * Move the boundaries after the given offset, and the starts and empty tags at the
+	 * given offset. Text inserted at the end of a tag does not extend it, as with the
+	 * DefaultPositionUpdater.
+	 */
+	private void insert(int offset, int length) {
+		int index = lowerBound(offset);
+		if(index < _deltas.length && prefix(index) == offset) {
+			index = partition(index);
+		}
+		if(index < _deltas.length) {
+			add(index, length);
+		}
+	}
+
+	/**
+	 * Reorder the boundaries at the offset of the given boundary, which are at distance 0
+	 * of each other, such that the boundaries that must not move when text is inserted at
+	 * that offset come first: the ends of non-empty tags and the boundaries that belong to
+	 * no tag. Deleting text can collapse boundaries in another order. The order of the
+	 * other boundaries is kept, so the start of a tag stays before its end.
+	 *
+	 * @return The index of the first boundary that must move.
+	 */
+	private int partition(int first) {
+		int last = first + 1;
+		while(last < _deltas.length && _deltas[last] == 0) {
+			last++;
+		}
+		int size = last - first;
+		int[] tags = new int[size];
+		boolean[] ends = new boolean[size];
+		int nbFixed = 0;
+		for(int i = first; i < last; i++) {
+			if(isFixed(i)) {
+				tags[nbFixed] = _boundaryTags[i];
+				ends[nbFixed] = _isEnd[i];
+				nbFixed++;
+			}
+		}
+		int next = nbFixed;
+		for(int i = first; i < last; i++) {
+			if(! isFixed(i)) {
+				tags[next] = _boundaryTags[i];
+				ends[next] = _isEnd[i];
+				next++;
+			}
+		}
+		for(int i = 0; i < size; i++) {
+			_boundaryTags[first + i] = tags[i];
+			_isEnd[first + i] = ends[i];
+			EclipseEditorTag tag = _tags[tags[i]];
+			if(tag != null) {
+				if(ends[i]) {
+					tag._endBoundary = first + i;
+				} else {
+					tag._startBoundary = first + i;
+				}
+			}
+		}
+		return first + nbFixed;
+	}
+
+	private boolean isFixed(int boundary) {
+		EclipseEditorTag tag = _tags[_boundaryTags[boundary]];
+		if(tag == null) {
+			return true;
+		}
+		if(_isEnd[boundary]) {
+			return ! isEmpty(_boundaryTags[boundary]);
+		}
+		// A tag that covered exactly the replaced text keeps its start.
+		for(EclipseEditorTag exact: _exact) {
+			if(exact == tag) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Collapse the boundaries in the deleted text onto its offset, and move the boundaries
+	 * after it. The tags that lie strictly inside the deleted text are deleted. The other tags
+	 * that start and end in the deleted text become empty.
+	 */
+	private void delete(int offset, int length) {
+		int end = offset + length;
+		int first = lowerBound(offset + 1);
+		int last = lowerBound(end + 1);
+		int previous = (first == 0 ? 0 : prefix(first - 1));
+		int current = previous;
+		for(int i = first; i < last; i++) {
+			current += _deltas[i];
+			if(_isEnd[i]) {
+				EclipseEditorTag tag = _tags[_boundaryTags[i]];
+				if(tag != null) {
+					int start = prefix(tag._startBoundary);
+					if(start > offset && current < end) {
+						deleteTag(_boundaryTags[i], offset);
+					} else if(start >= offset) {
+						if(start == offset && current == end) {
+							_exact.add(tag);
+						}
+						_reshaped.add(tag);
+					}
+				}
+			}
+		}
+		for(int i = first; i < last; i++) {
+			add(i, (i == first ? offset - previous : 0) - _deltas[i]);
+		}
+		if(last < _deltas.length) {
+			int oldOffset = current + _deltas[last];
+			add(last, (oldOffset - length) - (first < last ? offset : current) - _deltas[last]);
+		}
+	}
+
+	private boolean isEmpty(int tagIndex) {
+		EclipseEditorTag tag = _tags[tagIndex];
+		return prefix(tag._endBoundary) == prefix(tag._startBoundary);
+	}
+
+	private void deleteTag(int tagIndex, int offset) {
+		EclipseEditorTag tag = _tags[tagIndex];
+		detach(tagIndex);
+		tag.offset = offset;
+		tag.length = 0;
+		tag.delete();
+		_nbDeletions++;
+		_deleted.add(tag);
+	}
+
+	/**
+	 * Return the offset of the given tag, which must be in this tree.
+	 */
+	synchronized int offset(EclipseEditorTag tag) {
+		if(_dirty && tag._updater == this) {
+			return prefix(tag._startBoundary);
+		}
+		return tag.offset;
+	}
+
+	/**
+	 * Return the length of the given tag, which must be in this tree.
+	 */
+	synchronized int length(EclipseEditorTag tag) {
+		if(_dirty && tag._updater == this) {
+			return prefix(tag._endBoundary) - prefix(tag._startBoundary);
+		}
+		return tag.length;
+	}
+
+	/**
+	 * Write the offsets and the lengths of the tags in this tree to their fields.
+	 */
+	public synchronized void materialize() {
+		if(_dirty) {
+			int current = 0;
+			for(int i = 0; i < _deltas.length; i++) {
+				current += _deltas[i];
+				EclipseEditorTag tag = _tags[_boundaryTags[i]];
+				if(tag != null) {
+					if(_isEnd[i]) {
+						tag.length = current - tag.offset;
+					} else {
+						tag.offset = current;
+					}
+				}
+			}
+			_dirty = false;
+		}
+	}
+
+	/**
+	 * Remove the given position from this tree, after writing its offset and length to its fields.
+	 * This must be done before the position is removed from the document.
+	 */
+	public synchronized void detach(Position position) {
+		if(position instanceof EclipseEditorTag && ((EclipseEditorTag)position)._updater == this) {
+			EclipseEditorTag tag = (EclipseEditorTag)position;
+			tag.offset = offset(tag);
+			tag.length = length(tag);
+			detach(_boundaryTags[tag._startBoundary]);
+		} else {
+			// Position.equals compares the locations, so the tag is looked up by identity.
+			for(int i = 0; i < _pending.size(); i++) {
+				if(_pending.get(i) == position) {
+					_pending.remove(i);
+					return;
+				}
+			}
+		}
+	}
+
+	private void detach(int tagIndex) {
+		EclipseEditorTag tag = _tags[tagIndex];
+		tag._updater = null;
+		_tags[tagIndex] = null;
+	}
+
+	/**
+	 * Write the offsets and the lengths of the tags to their fields and discard the tree.
+	 * It will be built again at the next change of the document. This must be done
+	 * before all tags are removed from the document.
+	 */
+	public synchronized void invalidate() {
+		_pending.clear();
+		if(_tags != null) {
+			materialize();
+			for(EclipseEditorTag tag: _tags) {
+				if(tag != null) {
+					tag._updater = null;
+				}
+			}
+			_tags = null;
+			_boundaryTags = null;
+			_isEnd = null;
+			_deltas = null;
+			_tree = null;
+		}
+	}
+
+	private void ensureBuilt() {
+		if(_tags != null) {
+			return;
+		}
+		Position[] positions;
+		try {
+			positions = document().getPositions(EclipseEditorTag.CHAMELEON_CATEGORY);
+		} catch (BadPositionCategoryException e) {
+			positions = new Position[0];
+		}
+		int nbTags = 0;
+		for(Position position: positions) {
+			if(position instanceof EclipseEditorTag && ! position.isDeleted()) {
+				nbTags++;
+			}
+		}
+		final EclipseEditorTag[] tags = new EclipseEditorTag[nbTags];
+		nbTags = 0;
+		for(Position position: positions) {
+			if(position instanceof EclipseEditorTag && ! position.isDeleted()) {
+				tags[nbTags++] = (EclipseEditorTag)position;
+			}
+		}
+		// Boundary 2i is the start of tag i, boundary 2i+1 is its end.
+		Integer[] order = new Integer[2 * nbTags];
+		for(int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer first, Integer second) {
+				int firstOffset = boundaryOffset(tags, first);
+				int secondOffset = boundaryOffset(tags, second);
+				if(firstOffset != secondOffset) {
+					return firstOffset < secondOffset ? -1 : 1;
+				}
+				return rank(tags, first) - rank(tags, second);
+			}
+		});
+		_tags = tags;
+		_boundaryTags = new int[order.length];
+		_isEnd = new boolean[order.length];
+		_deltas = new int[order.length];
+		_tree = new int[order.length + 1];
+		int previous = 0;
+		for(int i = 0; i < order.length; i++) {
+			int boundary = order[i];
+			EclipseEditorTag tag = tags[boundary / 2];
+			_boundaryTags[i] = boundary / 2;
+			_isEnd[i] = (boundary % 2 == 1);
+			if(_isEnd[i]) {
+				tag._endBoundary = i;
+			} else {
+				tag._startBoundary = i;
+			}
+			int offset = boundaryOffset(tags, boundary);
+			_deltas[i] = offset - previous;
+			previous = offset;
+		}
+		// Build the Fenwick tree in linear time.
+		for(int i = 1; i <= _deltas.length; i++) {
+			_tree[i] += _deltas[i - 1];
+			int parent = i + (i & -i);
+			if(parent <= _deltas.length) {
+				_tree[parent] += _tree[i];
+			}
+		}
+		for(EclipseEditorTag tag: tags) {
+			tag._updater = this;
+		}
+		_dirty = false;
+	}
+
+	private static int boundaryOffset(EclipseEditorTag[] tags, int boundary) {
+		Position tag = tags[boundary / 2];
+		return boundary % 2 == 0 ? tag.offset : tag.offset + tag.length;
+	}
+
+	/**
+	 * At the same offset, the ends of non-empty tags come first, so they are not
+	 * moved by text inserted at that offset, and the end of an empty tag comes after its start.
+	 */
+	private static int rank(EclipseEditorTag[] tags, int boundary) {
+		if(boundary % 2 == 0) {
+			return 1;
+		}
+		return tags[boundary / 2].length == 0 ? 2 : 0;
+	}
+
+	/**
+	 * Return the offset of the boundary at the given index.
+	 */
+	private int prefix(int index) {
+		int result = 0;
+		for(int i = index + 1; i > 0; i -= (i & -i)) {
+			result += _tree[i];
+		}
+		return result;
+	}
+
+	private void add(int index, int delta) {
+		_deltas[index] += delta;
+		for(int i = index + 1; i < _tree.length; i += (i & -i)) {
+			_tree[i] += delta;
+		}
+	}
+
+	/**
+	 * Return the index of the first boundary with an offset that is at least the given offset.
+	 * The distances are never negative, so the prefix sums are sorted.
+	 */
+	private int lowerBound(int offset) {
+		int index = 0;
+		int sum = 0;
+		int step = Integer.highestOneBit(Math.max(1, _deltas.length));
+		for(; step > 0; step >>= 1) {
+			int next = index + step;
+			if(next <= _deltas.length && sum + _tree[next] < offset) {
+				index = next;
+				sum += _tree[next];
+			}
+		}
+		return index;
+	}
+
+}
@@ -0,0 +1,249 @@
+package chameleon.editor.developertools.statisticsview;
+
+import java.io.FileWriter;
+import java.io.IOException;
+
+import org.eclipse.jface.action.Action;
+import org.eclipse.jface.action.IContributionManager;
+import org.eclipse.jface.viewers.IStructuredContentProvider;
+import org.eclipse.jface.viewers.ITableLabelProvider;
+import org.eclipse.jface.viewers.LabelProvider;
+import org.eclipse.jface.viewers.TableViewer;
+import org.eclipse.jface.viewers.Viewer;
+import org.eclipse.jface.viewers.ViewerSorter;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.FileDialog;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.TableColumn;
+import org.eclipse.ui.part.ViewPart;
+
+import chameleon.editor.ChameleonEditorPlugin;
+import chameleon.editor.editors.ChameleonEditor;
+import chameleon.editor.project.ChameleonProjectNature;
+import chameleon.editor.project.DocumentStatistics;
+import chameleon.editor.project.ProjectStatistics;
+
+/**
+ * Shows the parse time and the size of each document of the project of the current
+ * Chameleon editor, together with the totals for the project. This view is intended
+ * to be used by Chameleon programmers to find the files that dominate the load time
+ * and the memory usage of a project. The statistics can be exported as a CSV file.
+ */
+public class StatisticsView extends ViewPart {
+
+	private static final String[] COLUMNS = {"File", "Parse time (ms)", "Characters", "Elements", "Editor tags", "Cache size", "Dependents", "Element reparses", "Document reparses"};
+
+	private TableViewer viewer;
+
+	private Label label;
+
+	private ProjectStatistics statistics;
+
+	// The column by which the table is sorted, in descending order.
+	private int sortColumn = 1;
+
+	@Override
+	public void createPartControl(Composite parent) {
+		// lay out the grid of the view
+		GridLayout layout = new GridLayout();
+		layout.numColumns = 1;
+		layout.verticalSpacing = 2;
+		layout.marginWidth = 0;
+		layout.marginHeight = 2;
+		parent.setLayout(layout);
+
+		// add label
+		label = new Label(parent, SWT.LEFT);
+		label.setText("Model Statistics View");
+		GridData layoutData = new GridData();
+		layoutData.grabExcessHorizontalSpace = true;
+		layoutData.horizontalAlignment = GridData.FILL;
+		label.setLayoutData(layoutData);
+
+		// add TableViewer
+		viewer = new TableViewer(parent, SWT.BORDER | SWT.FULL_SELECTION);
+		Table table = viewer.getTable();
+		table.setHeaderVisible(true);
+		table.setLinesVisible(true);
+		for(int i = 0; i < COLUMNS.length; i++) {
+			TableColumn column = new TableColumn(table, i == 0 ? SWT.LEFT : SWT.RIGHT);
+			column.setText(COLUMNS[i]);
+			column.setWidth(i == 0 ? 300 : 100);
+			final int index = i;
+			column.addSelectionListener(new SelectionAdapter() {
+				@Override
+				public void widgetSelected(SelectionEvent e) {
+					sortColumn = index;
+					viewer.refresh();
+				}
+			});
+		}
+		viewer.setContentProvider(new StatisticsContentProvider());
+		viewer.setLabelProvider(new StatisticsLabelProvider());
+		viewer.setSorter(new StatisticsSorter());
+		layoutData = new GridData();
+		layoutData.grabExcessHorizontalSpace = true;
+		layoutData.grabExcessVerticalSpace = true;
+		layoutData.horizontalAlignment = GridData.FILL;
+		layoutData.verticalAlignment = GridData.FILL;
+		table.setLayoutData(layoutData);
+
+		// create actions:
+		Action refreshAction = new RefreshAction();
+		Action exportAction = new ExportAction();
+
+		// create menu:
+		IContributionManager mgr = getViewSite().getActionBars().getMenuManager();
+		mgr.add(refreshAction);
+		mgr.add(exportAction);
+
+		// create toolbar:
+		mgr = getViewSite().getActionBars().getToolBarManager();
+		mgr.add(refreshAction);
+		mgr.add(exportAction);
+	}
+
+	@Override
+	public void setFocus() {
+		viewer.getControl().setFocus();
+	}
+
+	/**
+	 * Collects the statistics of the project of the current Chameleon editor.
+	 */
+	private class RefreshAction extends Action {
+		public RefreshAction() {
+			super("Refresh Statistics");
+		}
+		@Override
+		public void run() {
+			ChameleonEditor editor = ChameleonEditor.getCurrentActiveEditor();
+			if(editor != null) {
+				ChameleonProjectNature nature = editor.getDocument().getProjectNature();
+				statistics = nature.statistics();
+				label.setText(nature.getProject().getName()+": "+statistics.documents().size()+" documents ("+statistics.nbStubs()+" stubs), "
+						+ProjectStatistics.milliseconds(statistics.totalParseTime())+" ms parse time, "
+						+statistics.totalTextLength()+" characters, "
+						+statistics.totalElements()+" elements, "
+						+statistics.totalEditorTags()+" editor tags, "
+						+statistics.totalCacheSize()+" cached results, "
+						+statistics.totalDocumentReparses()+" of "+(statistics.totalElementReparses() + statistics.totalDocumentReparses())+" reparses of entire documents");
+				viewer.setInput(statistics);
+			} else {
+				ChameleonEditorPlugin.showMessageBox("Error", "Error while collecting the model statistics.\nNo Chameleon editor found.\nThe current active editor must be an Chameleon Editor.", SWT.ICON_ERROR);
+			}
+		}
+	}
+
+	/**
+	 * Writes the statistics that are shown to a CSV file.
+	 */
+	private class ExportAction extends Action {
+		public ExportAction() {
+			super("Export Statistics as CSV");
+		}
+		@Override
+		public void run() {
+			if(statistics == null) {
+				ChameleonEditorPlugin.showMessageBox("Error", "There are no statistics to export.\nRefresh the statistics first.", SWT.ICON_ERROR);
+				return;
+			}
+			FileDialog dialog = new FileDialog(viewer.getControl().getShell(), SWT.SAVE);
+			dialog.setFilterExtensions(new String[]{"*.csv"});
+			String fileName = dialog.open();
+			if(fileName != null) {
+				try {
+					FileWriter writer = new FileWriter(fileName);
+					try {
+						statistics.writeCSV(writer);
+					} finally {
+						writer.close();
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+					ChameleonEditorPlugin.showMessageBox("Error", "Could not write "+fileName+":\n"+e.getMessage(), SWT.ICON_ERROR);
+				}
+			}
+		}
+	}
+
+	private class StatisticsContentProvider implements IStructuredContentProvider {
+		public Object[] getElements(Object inputElement) {
+			return ((ProjectStatistics)inputElement).documents().toArray();
+		}
+		public void dispose() {
+		}
+		public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
+		}
+	}
+
+	private class StatisticsLabelProvider extends LabelProvider implements ITableLabelProvider {
+		public Image getColumnImage(Object element, int columnIndex) {
+			return null;
+		}
+		public String getColumnText(Object element, int columnIndex) {
+			DocumentStatistics document = (DocumentStatistics) element;
+			switch(columnIndex) {
+			case 0:
+				return document.path().toString() + (document.isStub() ? " (stub)" : "");
+			case 1:
+				return ProjectStatistics.milliseconds(document.parseTime());
+			case 2:
+				return String.valueOf(document.textLength());
+			case 3:
+				return String.valueOf(document.nbElements());
+			case 4:
+				return String.valueOf(document.nbEditorTags());
+			case 5:
+				return String.valueOf(document.cacheSize());
+			case 6:
+				return String.valueOf(document.nbDependents());
+			case 7:
+				return String.valueOf(document.nbElementReparses());
+			case 8:
+				return String.valueOf(document.nbDocumentReparses());
+			default:
+				return "";
+			}
+		}
+	}
+
+	private class StatisticsSorter extends ViewerSorter {
+		@Override
+		public int compare(Viewer viewer, Object e1, Object e2) {
+			DocumentStatistics first = (DocumentStatistics) e1;
+			DocumentStatistics second = (DocumentStatistics) e2;
+			switch(sortColumn) {
+			case 0:
+				return first.path().toString().compareTo(second.path().toString());
+			case 1:
+				return compareDescending(first.parseTime(), second.parseTime());
+			case 2:
+				return compareDescending(first.textLength(), second.textLength());
+			case 3:
+				return compareDescending(first.nbElements(), second.nbElements());
+			case 4:
+				return compareDescending(first.nbEditorTags(), second.nbEditorTags());
+			case 5:
+				return compareDescending(first.cacheSize(), second.cacheSize());
+			case 6:
+				return compareDescending(first.nbDependents(), second.nbDependents());
+			case 7:
+				return compareDescending(first.nbElementReparses(), second.nbElementReparses());
+			default:
+				return compareDescending(first.nbDocumentReparses(), second.nbDocumentReparses());
+			}
+		}
+		private int compareDescending(long first, long second) {
+			return first < second ? 1 : (first > second ? -1 : 0);
+		}
+	}
+
+}
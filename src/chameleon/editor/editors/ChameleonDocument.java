@@ -1,28 +1,32 @@
 package chameleon.editor.editors;
 
 import java.awt.event.ActionListener;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.BadPositionCategoryException;
-import org.eclipse.jface.text.DefaultPositionUpdater;
 import org.eclipse.jface.text.Document;
 import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.ITextStore;
 import org.eclipse.jface.text.ITextViewer;
 import org.eclipse.jface.text.Position;
-import org.eclipse.jface.text.Region;
 import org.eclipse.jface.text.TextPresentation;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.widgets.Display;
@@ -31,12 +35,17 @@ import org.rejuse.predicate.SafePredicate;
 
 import chameleon.core.Config;
 import chameleon.core.compilationunit.CompilationUnit;
+import chameleon.core.element.Element;
 import chameleon.core.language.Language;
 import chameleon.core.namespace.Namespace;
 import chameleon.editor.ChameleonEditorPlugin;
 import chameleon.editor.connector.EclipseEditorTag;
+import chameleon.editor.connector.EditorTagIndex;
+import chameleon.editor.connector.EditorTagStore;
+import chameleon.editor.connector.EditorTagUpdater;
 import chameleon.editor.presentation.PresentationManager;
 import chameleon.editor.project.ChameleonProjectNature;
+import chameleon.editor.project.SourceFileReader;
 import chameleon.input.ModelFactory;
 import chameleon.input.ParseException;
 
@@ -88,6 +97,15 @@ public class ChameleonDocument extends Document {
 	 *
 	 */
 	public ChameleonDocument(ChameleonProjectNature projectNature, IFile file, IPath path){
+		this(projectNature, file, path, true);
+	}
+	
+	/**
+	 * Create a new ChameleonDocument. If load is false and the file is effective, the
+	 * contents of the file are not read. The document is then a stub that must be loaded
+	 * with load() before it can be parsed.
+	 */
+	public ChameleonDocument(ChameleonProjectNature projectNature, IFile file, IPath path, boolean load){
 		super();
 		
 		setCompilationUnit(new CompilationUnit());
@@ -104,7 +122,11 @@ public class ChameleonDocument extends Document {
 		
 		if (file!=null){ 		
 			try {
-				parseFile(file);
+				if(load) {
+				  parseFile(file);
+				} else {
+					_stub = true;
+				}
 				_relativePathName = path.removeFirstSegments(1).toString();
 				_name = file.getName();
 			} catch (CoreException e) {
@@ -126,6 +148,242 @@ public class ChameleonDocument extends Document {
 		return _path;
 	}
 	
+	/**
+	 * Check whether this document is a stub: its file has not been read and its
+	 * compilation unit has not been parsed yet.
+	 */
+	public boolean isStub() {
+		return _stub;
+	}
+	
+	/**
+	 * Mark this document as no longer being a stub. This is done when the compilation unit
+	 * of this document is parsed.
+	 */
+	public void clearStub() {
+		_stub = false;
+	}
+	
+	private volatile boolean _stub;
+	
+	/**
+	 * Read the contents of the file of this document if this document is a stub.
+	 */
+	public void load() throws CoreException, IOException {
+		if(_stub) {
+			parseFile(_file);
+		}
+	}
+	
+	/**
+	 * Release the text and the line information of this document. The text is read again
+	 * from the file of this document when it is needed, and is then kept in a soft reference.
+	 * The first modification of the document, and the first request for line information,
+	 * restore the full representation of the document. Setting the content of the document,
+	 * as an editor does when it opens the file, also restores it.
+	 * 
+	 * This must only be done when the text of this document is equal to the contents of its
+	 * file, or else the editor tags of this document would point to the wrong text.
+	 */
+	public synchronized void compact() {
+		if(_compactStore == null) {
+			CompactTextStore compact = new CompactTextStore(getLength(), parsedDigest());
+			_fullStore = getStore();
+			_fullStore.set("");
+			getTracker().set("");
+			_compactStore = compact;
+			setTextStore(compact);
+			_tokenIndex.clear();
+		}
+	}
+	
+	/**
+	 * Check whether the text of this document has been released.
+	 */
+	public boolean isCompact() {
+		return _compactStore != null;
+	}
+	
+	/**
+	 * Restore the full representation of this document if it has been compacted. The text
+	 * is read from the file of this document. If the file has been changed since this document
+	 * was compacted, its editor tags no longer match the text, so they are removed, and the
+	 * compilation unit of this document is parsed again from the new text.
+	 */
+	public void expand() {
+		boolean changed = false;
+		synchronized(this) {
+			if(_compactStore != null) {
+				String text = _compactStore.read();
+				changed = ! _compactStore.matches(text);
+				_compactStore = null;
+				setTextStore(_fullStore);
+				_fullStore.set(text);
+				getTracker().set(text);
+				_fullStore = null;
+				if(changed) {
+					dumpPositions();
+					setParsedDigest(null);
+				}
+			}
+		}
+		if(changed && getProjectNature().documentOfPath(path()) == this) {
+			getProjectNature().updateModel(this);
+		}
+	}
+	
+	/**
+	 * Replace the compact representation of this document by an empty full representation,
+	 * without reading the file. This is done when the entire text is replaced.
+	 */
+	private synchronized void discardCompact() {
+		if(_compactStore != null) {
+			_compactStore = null;
+			setTextStore(_fullStore);
+			_fullStore = null;
+		}
+	}
+	
+	// The store of the full representation while this document is compact.
+	private ITextStore _fullStore;
+	
+	private CompactTextStore _compactStore;
+	
+	/**
+	 * A text store that does not keep the text of a document, but reads it from the
+	 * file of the document when it is needed. Modifications restore the full
+	 * representation of the document.
+	 */
+	private class CompactTextStore implements ITextStore {
+		
+		public CompactTextStore(int length, String digest) {
+			_length = length;
+			_digest = digest;
+		}
+		
+		private int _length;
+		
+		// The digest of the text from which the compilation unit was parsed.
+		private String _digest;
+		
+		private SoftReference<String> _text = new SoftReference<String>(null);
+		
+		/**
+		 * Read the current contents of the file of the document.
+		 */
+		public String read() {
+			try {
+				return SourceFileReader.read(_file);
+			} catch (CoreException e) {
+				e.printStackTrace();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return "";
+		}
+		
+		/**
+		 * Check whether the given text is the text from which the compilation unit was parsed.
+		 */
+		public boolean matches(String text) {
+			return text.length() == _length && _digest != null && _digest.equals(ChameleonProjectNature.digest(text));
+		}
+		
+		public String text() {
+			String result = _text.get();
+			if(result == null) {
+				result = read();
+				// If the file has been changed in the meantime, the document is parsed again when
+				// it is expanded. Until then, the length must remain consistent with the positions
+				// in the document.
+				if(result.length() > _length) {
+					result = result.substring(0, _length);
+				} else if(result.length() < _length) {
+					StringBuffer padded = new StringBuffer(result);
+					while(padded.length() < _length) {
+						padded.append(' ');
+					}
+					result = padded.toString();
+				}
+				_text = new SoftReference<String>(result);
+			}
+			return result;
+		}
+
+		public char get(int offset) {
+			return text().charAt(offset);
+		}
+
+		public String get(int offset, int length) {
+			return text().substring(offset, offset + length);
+		}
+
+		public int getLength() {
+			return _length;
+		}
+
+		public void replace(int offset, int length, String text) {
+			expand();
+			getStore().replace(offset, length, text);
+		}
+
+		public void set(String text) {
+			// The old text is replaced as a whole, so it does not have to be read.
+			discardCompact();
+			getStore().set(text);
+		}
+	}
+	
+	// The line information of a compact document is restored before it is used.
+	
+	@Override
+	public int getLineOfOffset(int pos) throws BadLocationException {
+		expand();
+		return super.getLineOfOffset(pos);
+	}
+	
+	@Override
+	public int getLineOffset(int line) throws BadLocationException {
+		expand();
+		return super.getLineOffset(line);
+	}
+	
+	@Override
+	public int getLineLength(int line) throws BadLocationException {
+		expand();
+		return super.getLineLength(line);
+	}
+	
+	@Override
+	public IRegion getLineInformation(int line) throws BadLocationException {
+		expand();
+		return super.getLineInformation(line);
+	}
+	
+	@Override
+	public IRegion getLineInformationOfOffset(int offset) throws BadLocationException {
+		expand();
+		return super.getLineInformationOfOffset(offset);
+	}
+	
+	@Override
+	public int getNumberOfLines() {
+		expand();
+		return super.getNumberOfLines();
+	}
+	
+	@Override
+	public int getNumberOfLines(int offset, int length) throws BadLocationException {
+		expand();
+		return super.getNumberOfLines(offset, length);
+	}
+	
+	@Override
+	public String getLineDelimiter(int line) throws BadLocationException {
+		expand();
+		return super.getLineDelimiter(line);
+	}
+	
 	/**
 	 * 
 	 * @return
@@ -151,18 +409,10 @@ public class ChameleonDocument extends Document {
 		return _path.toOSString().equals(cd._path.toOSString());
 	}
 	
-	//parses the given file
+	//reads the given file
 	private void parseFile(IFile file) throws CoreException, IOException {
-		BufferedReader reader = new BufferedReader(new InputStreamReader(file.getContents()));
-		String nxt = "";
-		String tot = "";
-		while (nxt!=null) {
-			nxt = reader.readLine();
-			if (nxt!=null) tot+="\n"+nxt;
-		}
 		// QUESTION: does this trigger the reconcilers?
-		set(tot);
-		
+		set(SourceFileReader.read(file));
 	}
 
 
@@ -172,8 +422,200 @@ public class ChameleonDocument extends Document {
 	 * The meta model is also set here.
 	 */
 	private void initialize(){
+		_tagIndex = new EditorTagIndex(this);
+		_tagStore = new EditorTagStore(this);
+		_tokenIndex = new TokenIndex(this);
+		addPositionUpdater(_tokenIndex);
 		addPositionCategory(EclipseEditorTag.CHAMELEON_CATEGORY);
-		addPositionUpdater(new DefaultPositionUpdater(EclipseEditorTag.CHAMELEON_CATEGORY));
+		_tagUpdater = new EditorTagUpdater(this);
+		addPositionUpdater(_tagUpdater);
+		addPositionUpdater(_tagStore);
+	}
+	
+	private TokenIndex _tokenIndex;
+	
+	/**
+	 * Return the index over the words of this document.
+	 */
+	public TokenIndex tokenIndex() {
+		return _tokenIndex;
+	}
+	
+	private EditorTagUpdater _tagUpdater;
+	
+	private EditorTagStore _tagStore;
+	
+	/**
+	 * Return the store with the locations of this document that are not kept as positions.
+	 */
+	public EditorTagStore tagStore() {
+		return _tagStore;
+	}
+	
+	/**
+	 * Return all editor tags of this document sorted by offset: the tags that are positions
+	 * of this document, and views on the locations in the tag store of this document.
+	 */
+	public List<EclipseEditorTag> editorTags() {
+		List<EclipseEditorTag> packed = _tagStore.tags();
+		List<EclipseEditorTag> positions = positionTags();
+		List<EclipseEditorTag> result = new ArrayList<EclipseEditorTag>(positions.size() + packed.size());
+		int next = 0;
+		for(EclipseEditorTag position: positions) {
+			while(next < packed.size() && packed.get(next).getOffset() <= position.getOffset()) {
+				result.add(packed.get(next++));
+			}
+			result.add(position);
+		}
+		while(next < packed.size()) {
+			result.add(packed.get(next++));
+		}
+		return result;
+	}
+	
+	/**
+	 * Return the editor tags that are positions of this document, sorted by offset.
+	 */
+	public List<EclipseEditorTag> positionTags() {
+		Position[] positions;
+		try {
+			positions = getPositions(EclipseEditorTag.CHAMELEON_CATEGORY);
+		} catch (BadPositionCategoryException e) {
+			positions = new Position[0];
+		}
+		List<EclipseEditorTag> result = new ArrayList<EclipseEditorTag>(positions.length);
+		for(Position position: positions) {
+			if(position instanceof EclipseEditorTag) {
+				result.add((EclipseEditorTag)position);
+			}
+		}
+		return result;
+	}
+	
+	private EditorTagIndex _tagIndex;
+	
+	// The indexes over the editor tags of a single kind, by tag name.
+	private Map<String, EditorTagIndex> _tagIndexes = new HashMap<String, EditorTagIndex>();
+	
+	/**
+	 * Return the index over the editor tags of this document.
+	 */
+	public EditorTagIndex tagIndex() {
+		return _tagIndex;
+	}
+	
+	/**
+	 * Return the index over the editor tags of this document with the given name,
+	 * such as EclipseEditorTag.CROSSREFERENCE_TAG.
+	 */
+	public EditorTagIndex tagIndex(String tagName) {
+		synchronized(_tagIndexes) {
+			EditorTagIndex result = _tagIndexes.get(tagName);
+			if(result == null) {
+				result = new EditorTagIndex(this, tagName);
+				_tagIndexes.put(tagName, result);
+			}
+			return result;
+		}
+	}
+	
+	/**
+	 * Add the given tag, which has just been added to this document, to the indexes
+	 * over the editor tags of this document.
+	 */
+	public void tagAdded(EclipseEditorTag tag) {
+		_tagIndex.add(tag);
+		synchronized(_tagIndexes) {
+			for(EditorTagIndex index: _tagIndexes.values()) {
+				index.add(tag);
+			}
+		}
+	}
+	
+	/**
+	 * Remove the given tag, which has just been removed from this document, from the indexes
+	 * over the editor tags of this document.
+	 */
+	public void tagRemoved(EclipseEditorTag tag) {
+		_tagIndex.remove(tag);
+		synchronized(_tagIndexes) {
+			for(EditorTagIndex index: _tagIndexes.values()) {
+				index.remove(tag);
+			}
+		}
+	}
+	
+	/**
+	 * Tell the indexes over the editor tags of this document that the given tag has been
+	 * moved differently from the other tags by a change of this document.
+	 */
+	public void tagMoved(EclipseEditorTag tag) {
+		_tagIndex.move(tag);
+		synchronized(_tagIndexes) {
+			for(EditorTagIndex index: _tagIndexes.values()) {
+				index.move(tag);
+			}
+		}
+	}
+	
+	/**
+	 * Return the number of editor tags that have been deleted because their text was deleted.
+	 * The locations in the tag store are not counted, since they are not indexed as tags.
+	 */
+	public int nbDeletedTags() {
+		return _tagUpdater.nbDeletions();
+	}
+	
+	/**
+	 * Discard the indexes over the editor tags of this document. This must be done when
+	 * all editor tags of this document are removed.
+	 */
+	public void invalidateTagIndexes() {
+		_tagIndex.invalidate();
+		synchronized(_tagIndexes) {
+			for(EditorTagIndex index: _tagIndexes.values()) {
+				index.invalidate();
+			}
+		}
+	}
+	
+	/**
+	 * Return the version of the text of this document. Every change of the text gives
+	 * the document a new version.
+	 */
+	public long version() {
+		return getModificationStamp();
+	}
+	
+	/**
+	 * Return the current text of this document together with its version. The text is
+	 * read again if the document changes while it is being read.
+	 */
+	public DocumentSnapshot snapshot() {
+		while(true) {
+			long version = version();
+			String text;
+			try {
+				text = get();
+			} catch(RuntimeException exc) {
+				// The text store was changed while it was read.
+				continue;
+			}
+			if(version == version()) {
+				return new DocumentSnapshot(text, version);
+			}
+		}
+	}
+	
+	private final ReentrantLock _modelLock = new ReentrantLock();
+	
+	/**
+	 * Return the lock that is held while a part of the model of this document and its
+	 * editor tags are being replaced. In the meantime, the tags of that part are incomplete.
+	 * The UI thread must not wait for this lock, since a parse can take a long time.
+	 */
+	public Lock modelLock() {
+		return _modelLock;
 	}
 
 
@@ -239,18 +681,151 @@ public class ChameleonDocument extends Document {
 		return _cu;
 	}
 
+	/**
+	 * Return the digest of the text from which the compilation unit of this document
+	 * was last parsed successfully. Null if the current compilation unit is not the
+	 * result of a successful parse.
+	 */
+	public String parsedDigest() {
+		return _parsedDigest;
+	}
+	
+	public void setParsedDigest(String digest) {
+		_parsedDigest = digest;
+	}
+	
+	private String _parsedDigest;
+	
+	/**
+	 * Return the time in nanoseconds that the last parse of this document took.
+	 */
+	public long parseTime() {
+		return _parseTime;
+	}
+	
+	public void setParseTime(long parseTime) {
+		_parseTime = parseTime;
+	}
+	
+	private long _parseTime;
+
+	/**
+	 * Return the number of times that the reconciler has parsed a single element
+	 * of this document again after a change.
+	 */
+	public int nbElementReparses() {
+		return _nbElementReparses;
+	}
+
+	public void elementReparsed() {
+		_nbElementReparses++;
+	}
+
+	private int _nbElementReparses;
+
+	/**
+	 * Return the number of times that the reconciler had to parse this entire document
+	 * again after a change, because no element around the change could be parsed on its own.
+	 */
+	public int nbDocumentReparses() {
+		return _nbDocumentReparses;
+	}
+
+	public void documentReparsed() {
+		_nbDocumentReparses++;
+	}
+
+	private int _nbDocumentReparses;
+
 	/** 
 	 * Empty out the chameleonpositions, none of the decorators are left.
 	 *
 	 */
 	public void dumpPositions() {
+		_tagUpdater.invalidate();
 		try {
 			this.removePositionCategory(EclipseEditorTag.CHAMELEON_CATEGORY);
 			this.addPositionCategory(EclipseEditorTag.CHAMELEON_CATEGORY);
 		} catch (BadPositionCategoryException e) {}
+		_tagStore.clear();
+		invalidateTagIndexes();
 		
 	}
 
+	/**
+	 * Remove all editor tags, like dumpPositions, but keep them aside so the next
+	 * parse of this document can reuse the tags of the elements that did not change.
+	 * The text of this document must not change until that parse.
+	 */
+	public void retirePositions() {
+		_tagUpdater.invalidate();
+		try {
+			Position[] positions = getPositions(EclipseEditorTag.CHAMELEON_CATEGORY);
+			synchronized(_retiredTags) {
+				for(Position position: positions) {
+					if(position instanceof EclipseEditorTag && ! position.isDeleted()) {
+						_retiredTags.add((EclipseEditorTag)position);
+					}
+				}
+			}
+		} catch (BadPositionCategoryException e) {
+			// There are no tags to retire.
+		}
+		dumpPositions();
+	}
+
+	private List<EclipseEditorTag> _retiredTags = new ArrayList<EclipseEditorTag>();
+
+	/**
+	 * Return the tags that were retired since the last call of this method.
+	 */
+	public List<EclipseEditorTag> takeRetiredTags() {
+		synchronized(_retiredTags) {
+			List<EclipseEditorTag> result = new ArrayList<EclipseEditorTag>(_retiredTags);
+			_retiredTags.clear();
+			return result;
+		}
+	}
+
+	/**
+	 * Replace the text of this document with the given text. The editor tags in the
+	 * unchanged text at the start and at the end of the document are retired, so the next
+	 * parse can reuse them. The tags at the end are moved along with the text. The other
+	 * tags are removed.
+	 */
+	public void replaceText(String text) {
+		if(isCompact()) {
+			// The old text is no longer known, so the unchanged text cannot be determined.
+			dumpPositions();
+			set(text);
+			return;
+		}
+		String old = get();
+		int max = Math.min(old.length(), text.length());
+		int prefix = 0;
+		while(prefix < max && old.charAt(prefix) == text.charAt(prefix)) {
+			prefix++;
+		}
+		int suffix = 0;
+		while(suffix < max - prefix && old.charAt(old.length() - 1 - suffix) == text.charAt(text.length() - 1 - suffix)) {
+			suffix++;
+		}
+		int delta = text.length() - old.length();
+		retirePositions();
+		synchronized(_retiredTags) {
+			Iterator<EclipseEditorTag> iterator = _retiredTags.iterator();
+			while(iterator.hasNext()) {
+				EclipseEditorTag tag = iterator.next();
+				if(tag.getOffset() >= old.length() - suffix) {
+					tag.setOffset(tag.getOffset() + delta);
+				} else if(tag.getOffset() + tag.getLength() > prefix) {
+					iterator.remove();
+				}
+			}
+		}
+		set(text);
+	}
+
 
 	@Override
 	public void addPosition(Position position) throws BadLocationException {
@@ -260,7 +835,102 @@ public class ChameleonDocument extends Document {
 
 	@Override
 	public void addPosition(String category, Position position) throws BadLocationException, BadPositionCategoryException {
+		if(EclipseEditorTag.CHAMELEON_CATEGORY.equals(category)) {
+			// Eclipse looks up the place of the position by the fields of the other positions.
+			_tagUpdater.materialize();
+		}
 		super.addPosition(category, position);
+		if(EclipseEditorTag.CHAMELEON_CATEGORY.equals(category) && position instanceof EclipseEditorTag) {
+			_tagUpdater.add((EclipseEditorTag)position);
+			tagAdded((EclipseEditorTag)position);
+		}
+	}
+
+	@Override
+	public void removePosition(String category, Position position) throws BadPositionCategoryException {
+		if(EclipseEditorTag.CHAMELEON_CATEGORY.equals(category)) {
+			// Eclipse looks up the position by its fields.
+			_tagUpdater.materialize();
+			_tagUpdater.detach(position);
+		}
+		super.removePosition(category, position);
+		if(EclipseEditorTag.CHAMELEON_CATEGORY.equals(category) && position instanceof EclipseEditorTag) {
+			tagRemoved((EclipseEditorTag)position);
+		}
+	}
+
+	/**
+	 * Remove the editor tags of the given element and of its descendants that lie within the
+	 * region with the given offset and length, and the locations in that region from the tag store.
+	 * This must be done before the element is parsed again. The removed tags remain tags of their
+	 * elements, so the element can still find its text through its ALL_TAG.
+	 * 
+	 * @return The removed tags, and views on the removed locations of the tag store.
+	 */
+	public List<EclipseEditorTag> removeEditorTags(final Element element, final int offset, final int length) {
+		List<EclipseEditorTag> tags = new ArrayList<EclipseEditorTag>();
+		try {
+			_tagIndex.tagsOverlapping(offset, length, new SafePredicate<EclipseEditorTag>() {
+				@Override
+				public boolean eval(EclipseEditorTag tag) {
+					return tag.getOffset() >= offset && tag.getOffset() + tag.getLength() <= offset + length && (tag.isView() || isInSubtree(tag.getElement(), element));
+				}
+			}, tags);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		for(EclipseEditorTag tag: tags) {
+			if(! tag.isView()) {
+				try {
+					removePosition(EclipseEditorTag.CHAMELEON_CATEGORY, tag);
+				} catch (BadPositionCategoryException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		_tagStore.removeEnclosedBy(offset, length);
+		return tags;
+	}
+
+	/**
+	 * Add the tags that were removed by removeEditorTags to this document again. This is
+	 * done when the element could not be parsed again, so it keeps its previous subtree.
+	 * The text of the document must not have changed since the tags were removed.
+	 */
+	public void restoreEditorTags(List<EclipseEditorTag> tags) {
+		for(EclipseEditorTag tag: tags) {
+			if(tag.isView()) {
+				_tagStore.add(tag.getOffset(), tag.getLength(), tag.getElement(), tag.getName());
+			} else {
+				try {
+					addPosition(EclipseEditorTag.CHAMELEON_CATEGORY, tag);
+				} catch (BadLocationException e) {
+					e.printStackTrace();
+				} catch (BadPositionCategoryException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	private static boolean isInSubtree(Element element, Element root) {
+		for(Element current = element; current != null; current = current.parent()) {
+			if(current == root) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The fields of the editor tags are brought up to date before they are handed out.
+	 */
+	@Override
+	public Position[] getPositions(String category) throws BadPositionCategoryException {
+		if(EclipseEditorTag.CHAMELEON_CATEGORY.equals(category) && _tagUpdater != null) {
+			_tagUpdater.materialize();
+		}
+		return super.getPositions(category);
 	}
 
 	public Language language() {
@@ -274,10 +944,25 @@ public class ChameleonDocument extends Document {
 	 * @param viewer
 	 */
 	public void doPresentation(final ITextViewer viewer) {
+		doPresentation(viewer, null);
+	}
+
+	/**
+	 * Compute the presentation of this document and apply it to the given viewer. The presentation
+	 * is abandoned if the given monitor is canceled before it has been applied.
+	 */
+	public void doPresentation(final ITextViewer viewer, final IProgressMonitor monitor) {
 		try{
-			_lastpresentation = getPresentationManager().createTextPresentation();
+			TextPresentation presentation = getPresentationManager().createTextPresentation(monitor);
+			if(presentation == null) {
+				return;
+			}
+			_lastpresentation = presentation;
 			Display.getDefault().asyncExec(new Runnable() {
 				public void run() {
+					if(monitor != null && monitor.isCanceled()) {
+						return;
+					}
 					// CHANGE in Tim's last version, the following line is absent.
 //					viewer.changeTextPresentation(_lastpresentation, false);
 					try {
@@ -332,8 +1017,7 @@ public class ChameleonDocument extends Document {
 		// to reparse an entire document
 
 		// A. remove all document positions & problem markers
-		System.out.println("DUMPING POSITIONS");
-		dumpPositions();
+		retirePositions();
 		try {
 			getFile().deleteMarkers(IMarker.PROBLEM, true, IResource.DEPTH_ZERO);
 			_parseErrors.clear();
@@ -360,7 +1044,8 @@ public class ChameleonDocument extends Document {
 			if(Config.DEBUG) {
 			  System.out.println("Re-add document to project");
 			}
-			Namespace root = getProjectNature().getModel();
+			// The other documents do not have to be parsed to add this one, so the stubs are left alone.
+			Namespace root = getProjectNature().language().defaultNamespace();
 			getProjectNature().addModelElement(this, root);
 		}
 
@@ -462,34 +1147,13 @@ public class ChameleonDocument extends Document {
 	 * @autor 	Tim Vermeiren
 	 */
 	public EclipseEditorTag getReferencePositionAtRegion(IRegion region){
-		try {
-			Position[] positions = getPositions(EclipseEditorTag.CHAMELEON_CATEGORY);
-			// Find smallest decorater including the specified region:
-			int minLength = Integer.MAX_VALUE;
-			EclipseEditorTag result = null;
-			for (Position position : positions) {
-				if(position instanceof EclipseEditorTag ){
-					EclipseEditorTag decorator = (EclipseEditorTag) position;
-					if(decorator.getName().equals(EclipseEditorTag.CROSSREFERENCE_TAG)){
-						if(decorator.includes(region.getOffset()) && decorator.getLength()<minLength){
-							result = decorator;
-						}
-					}
-				}
-					
+		EclipseEditorTag result = getReferenceEditorTagAtRegion(region);
+		if(Config.DEBUG) {
+			if(result == null) {
+				System.out.println("No cross reference decoration found.");
 			}
-			if(Config.DEBUG) {
-				if(result == null) {
-					System.out.println("No cross reference decoration found.");
-				}
-			}
-			return result;
-		} catch (BadPositionCategoryException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-			return null;
 		}
-		
+		return result;
 	}
 
 	
@@ -517,20 +1181,12 @@ public class ChameleonDocument extends Document {
 	 * @autor 	Tim Vermeiren
 	 */
 	public EclipseEditorTag getReferenceEditorTagAtRegion(IRegion region){
-		final int offset = region.getOffset();
-		// build a predicate that checks if the EditorTag includes the offset:
-		SafePredicate<EclipseEditorTag> predicate = new SafePredicate<EclipseEditorTag>(){
-			@Override
-			public boolean eval(EclipseEditorTag editorTag) {
-				return (editorTag.getName().equals(EclipseEditorTag.CROSSREFERENCE_TAG)) && editorTag.includes(offset);
-			}
-		};
-		Collection<EclipseEditorTag> tags = new TreeSet<EclipseEditorTag>(EclipseEditorTag.lengthComparator);
-		getEditorTagsWithPredicate(predicate, tags);
-		if(tags.size()==0){
+		try {
+			return tagIndex(EclipseEditorTag.CROSSREFERENCE_TAG).smallestTagAt(region.getOffset(), null);
+		} catch (Exception e) {
+			e.printStackTrace();
 			return null;
 		}
-		return tags.iterator().next();
 	}
 
 	/**
@@ -544,11 +1200,12 @@ public class ChameleonDocument extends Document {
 	 * @autor 	Tim Vermeiren
 	 */
 	public EclipseEditorTag getSmallestEditorTagAtOffset(final int offset){
-		Collection<EclipseEditorTag> tags = getEditorTagsAtOffset(offset, EclipseEditorTag.lengthComparator);
-		if(tags.size()==0){
+		try {
+			return _tagIndex.smallestTagAt(offset, null);
+		} catch (Exception e) {
+			e.printStackTrace();
 			return null;
 		}
-		return tags.iterator().next();
 	}
 	
 	/**
@@ -560,13 +1217,33 @@ public class ChameleonDocument extends Document {
 	 * @autor Tim Vermeiren
 	 */
 	public Collection<EclipseEditorTag> getEditorTagsAtOffset(int offset, Comparator<EclipseEditorTag> comparator){
-		// build a predicate that checks if the EditorTag includes the offset:
-		SafePredicate<EclipseEditorTag> predicate = new EclipseEditorTag.SurroundsOffsetPredicate(offset);
 		Collection<EclipseEditorTag> tags = new TreeSet<EclipseEditorTag>(comparator);
-		getEditorTagsWithPredicate(predicate, tags);
+		getEditorTagsAtOffset(offset, null, tags);
 		return tags;
 	}
 
+	/**
+	 * Gives the editorTags that surround the given offset and satisfy the given predicate.
+	 * 
+	 * @param 	offset
+	 * 			the offset that must be included in the editorTags
+	 * @param 	predicate
+	 * 			the predicate containing the condition the editorTag has to satisfy.
+	 * 			If the predicate is null, all editorTags surrounding the offset are given.
+	 * param	result
+	 * 			The editorTags satisfying the condition will be added to this collection
+	 * @post	If the predicate throws an exception the searching is just stopped and the already found
+	 * 			elements will be added to the result
+	 */
+	public void getEditorTagsAtOffset(int offset, Predicate<EclipseEditorTag> predicate, Collection<EclipseEditorTag> result){
+		try {
+			_tagIndex.tagsAt(offset, predicate, result);
+		} catch (Exception e) {
+			// the predicate has thrown an exception
+			e.printStackTrace();
+		}
+	}
+
 	/**
 	 * Gives the editorTags satisfying the given predicate.
 	 * 
@@ -581,20 +1258,12 @@ public class ChameleonDocument extends Document {
 	 */
 	public void getEditorTagsWithPredicate(Predicate<EclipseEditorTag> predicate, Collection<EclipseEditorTag> result){
 		try {
-			Position[] positions = getPositions(EclipseEditorTag.CHAMELEON_CATEGORY); // throws BadPositionCategoryException
-			for (Position position : positions) {
-				int count=1;
-				if(position instanceof EclipseEditorTag ){
-					EclipseEditorTag editorTag = (EclipseEditorTag) position;
-					if(predicate.eval(editorTag)){
-//						System.out.println(count+" Found cross reference tag at offset: " +editorTag.getOffset()+"with length: "+editorTag.getLength());
-						result.add(editorTag);
-					}
+			for (EclipseEditorTag editorTag : editorTags()) {
+				if(predicate.eval(editorTag)){
+//					System.out.println(count+" Found cross reference tag at offset: " +editorTag.getOffset()+"with length: "+editorTag.getLength());
+					result.add(editorTag);
 				}
 			}
-		} catch (BadPositionCategoryException e) {
-			// There exist no editorTags of the type EditorTag.CHAMELEON_CATEGORY
-			e.printStackTrace();
 		} catch (Exception e) {
 			// the predicate has thrown an exception
 			e.printStackTrace();
@@ -640,50 +1309,15 @@ public class ChameleonDocument extends Document {
 
 	/**
 	 * Returns the region of the word in this document including the given offset.
-	 * For testing purposes only. All word-characters (JavaIdentifierParts to be precise)
-	 * before and after the offset are included.
+	 * All word-characters (valid identifier characters of the language) before and
+	 * after the offset are included. If the character at the offset is not a word-character,
+	 * an empty region at the offset is returned. The words are looked up in the token index
+	 * of this document.
 	 * 
 	 * @see org.eclipse.jdt.internal.ui.text.JavaWordFinder
 	 */
 	public IRegion findWordRegion(int offset) {
-		int start = -2;
-		int end = -1;
-		try {
-			int pos = offset;
-			char c;
-
-			while (pos >= 0) {
-				c = this.getChar(pos);
-				if (!language().isValidIdentifierCharacter(c))
-					break;
-				--pos;
-			}
-			start = pos;
-
-			pos = offset;
-			int length = this.getLength();
-
-			while (pos < length) {
-				c = this.getChar(pos);
-				if (!language().isValidIdentifierCharacter(c))
-					break;
-				++pos;
-			}
-			end = pos;
-
-		} catch (BadLocationException x) {
-		}
-
-		if (start >= -1 && end > -1) {
-			if (start == offset && end == offset)
-				return new Region(offset, 0);
-			else if (start == offset)
-				return new Region(start, end - start);
-			else
-				return new Region(start + 1, end - start - 1);
-		}
-
-		return null;
+		return _tokenIndex.wordAt(offset);
 	}
 
 	
@@ -99,6 +99,19 @@ public class ChameleonDocumentProvider extends FileDocumentProvider {
 	/*
 	 * creates a new Chameleon document that is empty in the sense that there is no text in it yet
 	 */
+	/**
+	 * When the last editor of a Chameleon document is closed, the project nature
+	 * is notified so it can release the text of the document.
+	 */
+	@Override
+	protected void disposeElementInfo(Object element, ElementInfo info) {
+		super.disposeElementInfo(element, info);
+		if(info.fDocument instanceof ChameleonDocument) {
+			ChameleonDocument document = (ChameleonDocument) info.fDocument;
+			document.getProjectNature().documentClosed(document);
+		}
+	}
+
 	protected ChameleonDocument createEmptyChameleonDocument(ChameleonProjectNature nature, IPath path) {
 		return new ChameleonDocument(nature, null, path);
 	}
@@ -63,6 +63,7 @@ import chameleon.core.tag.Tag;
 import chameleon.editor.ChameleonEditorPlugin;
 import chameleon.editor.connector.EclipseEditorTag;
 import chameleon.editor.editors.actions.IChameleonEditorActionDefinitionIds;
+import chameleon.editor.editors.reconciler.ReconcileScheduler;
 import chameleon.editor.presentation.PresentationManager;
 import chameleon.editor.presentation.annotation.ChameleonAnnotation;
 import chameleon.editor.presentation.hierarchy.HierarchyView;
@@ -423,6 +424,17 @@ public class ChameleonEditor extends TextEditor implements ActionListener {
 		return document;
 	}
 
+	/**
+	 * The changes to the document of the focused editor are reconciled first.
+	 */
+	@Override
+	public void setFocus() {
+		super.setFocus();
+		if(document != null) {
+			ReconcileScheduler.getDefault().setFocused(document);
+		}
+	}
+
 	/**
 	 * Is called when the document has changed. 
 	 * When the document is not part of a chameleon project, it will function with decreased functionality
@@ -66,6 +66,10 @@ public class ChameleonSourceViewerConfiguration extends SourceViewerConfiguratio
 		public void actionPerformed(ActionEvent arg0) {
 			Display.getDefault().asyncExec(new Runnable() {
 				public void run() {
+					// The outline is rebuilt by the next reconcile.
+					if(_chameleonReconcilingStrategy.isCanceled()) {
+						return;
+					}
 					try {
 						ChameleonOutlinePage outlinePage = null;
 						if(_chameleonEditor != null) {
@@ -135,7 +139,7 @@ public class ChameleonSourceViewerConfiguration extends SourceViewerConfiguratio
 		_chameleonEditor = editor;
 		_chameleonReconcilingStrategy=new ChameleonReconcilingStrategy(this);
 		_presentationReconciler = new ChameleonPresentationReconciler(_chameleonEditor,_chameleonReconcilingStrategy);
-		_reconciler = new ChameleonReconciler(_chameleonReconcilingStrategy,true,25);
+		_reconciler = new ChameleonReconciler(_chameleonReconcilingStrategy,true,ChameleonReconciler.minDelay());
 		_chameleonReconcilingStrategy.addUpdateListener(new HighlightingReconcilingListener());
 		_chameleonReconcilingStrategy.addUpdateListener(new OutlineReconcilingListener());
 	}
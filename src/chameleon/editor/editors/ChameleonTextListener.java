@@ -1,5 +1,7 @@
 package chameleon.editor.editors;
 
+import java.util.concurrent.locks.Lock;
+
 import org.eclipse.jface.text.ITextListener;
 import org.eclipse.jface.text.ITextViewer;
 import org.eclipse.jface.text.TextEvent;
@@ -32,7 +34,16 @@ public class ChameleonTextListener implements ITextListener  {
 		//         The method in ChameleonDocument that takes an offset and length
 		//         as arguments is commented out.
 //		document.doPresentation(viewer, event.getOffset(), event.getLength());
-		document.doPresentation(viewer);
+		// While the reconciler replaces a part of the model, the tags of that part are
+		// incomplete. The reconciler presents the document itself when it is done.
+		Lock lock = document.modelLock();
+		if(lock.tryLock()) {
+			try {
+				document.doPresentation(viewer);
+			} finally {
+				lock.unlock();
+			}
+		}
 	}
 
 }
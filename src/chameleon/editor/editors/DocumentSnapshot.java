@@ -0,0 +1,34 @@
+package chameleon.editor.editors;
+
+/**
+ * The text of a document at a given version. A snapshot does not change when the
+ * document changes, so it can be parsed while the user keeps typing. The version tells
+ * whether the result of that parse still applies to the document.
+ */
+public class DocumentSnapshot {
+
+	public DocumentSnapshot(String text, long version) {
+		_text = text;
+		_version = version;
+	}
+
+	private String _text;
+
+	public String text() {
+		return _text;
+	}
+
+	private long _version;
+
+	public long version() {
+		return _version;
+	}
+
+	/**
+	 * Check whether the given document still has the text of this snapshot.
+	 */
+	public boolean isCurrent(ChameleonDocument document) {
+		return document.version() == _version;
+	}
+
+}
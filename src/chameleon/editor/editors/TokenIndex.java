@@ -0,0 +1,244 @@
+package chameleon.editor.editors;
+
+import java.util.Collection;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IPositionUpdater;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.Region;
+
+/**
+ * An index over the words of a document: the maximal runs of characters that are
+ * valid identifier characters of the language of the document. The index does not
+ * depend on the model, so it can answer word lookups while the document does not parse.
+ *
+ * The index is built when it is first queried, and is then updated at every change of the
+ * document by lexing only the changed text and the words that touch it. The words are kept
+ * in a gap buffer: the words before the gap store their offsets, and the words after the gap
+ * store their distance to the end of the document. A change moves the gap to the changed
+ * words, so the words after the change move along without being visited. Typing at the same
+ * place therefore costs constant time, independent of the size of the document.
+ */
+public class TokenIndex implements IPositionUpdater {
+
+	public TokenIndex(ChameleonDocument document) {
+		_document = document;
+	}
+
+	private ChameleonDocument _document;
+
+	public ChameleonDocument document() {
+		return _document;
+	}
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	// The start and end offsets of the words. Null if the index has not been built.
+	private int[] _starts;
+
+	private int[] _ends;
+
+	// The words in [_gapStart, _gapEnd) are unused.
+	private int _gapStart;
+
+	private int _gapEnd;
+
+	// The length of the document for which the words after the gap are stored.
+	private int _length;
+
+	/**
+	 * Check whether the given character is part of a word. By default, the valid
+	 * identifier characters of the language of the document are.
+	 */
+	protected boolean isWordCharacter(char c) {
+		return document().language().isValidIdentifierCharacter(c);
+	}
+
+	/**
+	 * Discard the index. It is built again when it is queried.
+	 */
+	public synchronized void clear() {
+		_starts = null;
+		_ends = null;
+	}
+
+	/**
+	 * Return the number of words in the document.
+	 */
+	public synchronized int size() {
+		ensureBuilt();
+		return _gapStart + (_starts.length - _gapEnd);
+	}
+
+	/**
+	 * Return the region of the word that contains the given offset. If the character at the
+	 * given offset is not part of a word, an empty region at the offset is returned. If the
+	 * offset is not the offset of a character in the document, null is returned.
+	 */
+	public synchronized IRegion wordAt(int offset) {
+		ensureBuilt();
+		if(offset < 0 || offset >= _length) {
+			return null;
+		}
+		int index = firstEndingAfter(offset);
+		if(index < size() && start(index) <= offset) {
+			return new Region(start(index), end(index) - start(index));
+		}
+		return new Region(offset, 0);
+	}
+
+	/**
+	 * Add the regions of the words that overlap the region with the given offset and
+	 * length to the given collection.
+	 */
+	public synchronized void words(int offset, int length, Collection<IRegion> result) {
+		ensureBuilt();
+		int size = size();
+		for(int i = firstEndingAfter(offset); i < size && start(i) < offset + length; i++) {
+			result.add(new Region(start(i), end(i) - start(i)));
+		}
+	}
+
+	/**
+	 * Update the words for the given change of the document.
+	 */
+	public synchronized void update(DocumentEvent event) {
+		if(_starts == null) {
+			return;
+		}
+		int offset = event.getOffset();
+		int deletedEnd = offset + event.getLength();
+		int delta = (event.getText() == null ? 0 : event.getText().length()) - event.getLength();
+		// The words that touch the changed text can be merged with, or split by, the new text.
+		int first = firstEndingAfter(offset - 1);
+		int last = first;
+		int size = size();
+		while(last < size && start(last) <= deletedEnd) {
+			last++;
+		}
+		int from = offset;
+		int to = deletedEnd;
+		if(first < last) {
+			from = Math.min(from, start(first));
+			to = Math.max(to, end(last - 1));
+		}
+		moveGap(first);
+		// Remove the words that touch the change.
+		_gapEnd += last - first;
+		_length += delta;
+		lex(from, to + delta);
+	}
+
+	private void ensureBuilt() {
+		if(_starts == null) {
+			_starts = new int[INITIAL_CAPACITY];
+			_ends = new int[INITIAL_CAPACITY];
+			_gapStart = 0;
+			_gapEnd = INITIAL_CAPACITY;
+			_length = document().getLength();
+			lex(0, _length);
+		}
+	}
+
+	/**
+	 * Add the words in the given region of the document at the gap. The region
+	 * must not start or end in the middle of a word.
+	 */
+	private void lex(int from, int to) {
+		String text;
+		try {
+			text = document().get(from, to - from);
+		} catch (BadLocationException e) {
+			e.printStackTrace();
+			return;
+		}
+		int i = 0;
+		int length = text.length();
+		while(i < length) {
+			while(i < length && ! isWordCharacter(text.charAt(i))) {
+				i++;
+			}
+			if(i < length) {
+				int start = i;
+				while(i < length && isWordCharacter(text.charAt(i))) {
+					i++;
+				}
+				insertAtGap(from + start, from + i);
+			}
+		}
+	}
+
+	private void insertAtGap(int start, int end) {
+		if(_gapStart == _gapEnd) {
+			grow();
+		}
+		_starts[_gapStart] = start;
+		_ends[_gapStart] = end;
+		_gapStart++;
+	}
+
+	private void grow() {
+		int capacity = _starts.length * 2;
+		int after = _starts.length - _gapEnd;
+		int[] starts = new int[capacity];
+		int[] ends = new int[capacity];
+		System.arraycopy(_starts, 0, starts, 0, _gapStart);
+		System.arraycopy(_ends, 0, ends, 0, _gapStart);
+		System.arraycopy(_starts, _gapEnd, starts, capacity - after, after);
+		System.arraycopy(_ends, _gapEnd, ends, capacity - after, after);
+		_starts = starts;
+		_ends = ends;
+		_gapEnd = capacity - after;
+	}
+
+	/**
+	 * Move the gap such that the word with the given index is the first word after it.
+	 */
+	private void moveGap(int index) {
+		while(_gapStart > index) {
+			_gapStart--;
+			_gapEnd--;
+			_starts[_gapEnd] = _starts[_gapStart] - _length;
+			_ends[_gapEnd] = _ends[_gapStart] - _length;
+		}
+		while(_gapStart < index) {
+			_starts[_gapStart] = _starts[_gapEnd] + _length;
+			_ends[_gapStart] = _ends[_gapEnd] + _length;
+			_gapStart++;
+			_gapEnd++;
+		}
+	}
+
+	private int start(int index) {
+		if(index < _gapStart) {
+			return _starts[index];
+		}
+		return _starts[index + _gapEnd - _gapStart] + _length;
+	}
+
+	private int end(int index) {
+		if(index < _gapStart) {
+			return _ends[index];
+		}
+		return _ends[index + _gapEnd - _gapStart] + _length;
+	}
+
+	/**
+	 * Return the index of the first word that ends after the given offset.
+	 */
+	private int firstEndingAfter(int offset) {
+		int low = 0;
+		int high = size();
+		while(low < high) {
+			int middle = (low + high) >>> 1;
+			if(end(middle) <= offset) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+}
@@ -12,6 +12,7 @@ import org.eclipse.ui.IWorkbench;
 import org.eclipse.ui.IWorkbenchPreferencePage;
 
 import chameleon.editor.ChameleonEditorPlugin;
+import chameleon.editor.project.ChameleonProjectNature;
 import chameleon.editor.presentation.autocompletion.AutoCompletionProposalsComparator;
 import chameleon.editor.presentation.formatting.ChameleonAutoEditStrategy;
 
@@ -27,6 +28,20 @@ public class ChameleonEditorPreferencePage extends FieldEditorPreferencePage imp
 	public static final int DEFAULT_NB_AUTO_COMPLETION_TYPE_SEARCH_LEVELS = 1;
 	
 	public static final String ENABLE_AUTO_FORMATTING = "enableAutoFormatting";
+	
+	public static final String PARALLEL_LOADING = "parallelLoading";
+	
+	public static final String LAZY_LOADING = "lazyLoading";
+	
+	public static final String COMPACT_CLOSED_DOCUMENTS = "compactClosedDocuments";
+	
+	public static final String SNAPSHOT_LOADING = "snapshotLoading";
+	
+	public static final String MIN_RECONCILE_DELAY = "minReconcileDelay";
+	public static final int DEFAULT_MIN_RECONCILE_DELAY = 25;
+	
+	public static final String MAX_RECONCILE_DELAY = "maxReconcileDelay";
+	public static final int DEFAULT_MAX_RECONCILE_DELAY = 1000;
 
 	public ChameleonEditorPreferencePage() {
 		super(FieldEditorPreferencePage.GRID);
@@ -49,6 +64,10 @@ public class ChameleonEditorPreferencePage extends FieldEditorPreferencePage imp
 
 	private BooleanFieldEditor booleanFieldEditor;
 
+	private Group loadingGroup;
+
+	private Group reconcilingGroup;
+
 	@Override
 	protected void createFieldEditors() {
 		// create auto-completion group:
@@ -74,6 +93,27 @@ public class ChameleonEditorPreferencePage extends FieldEditorPreferencePage imp
 		booleanFieldEditor = new BooleanFieldEditor(ENABLE_AUTO_FORMATTING, "Enable Auto-formatting while typing", autoformattingGroup);
 		addField(booleanFieldEditor);
 		
+		// create project loading group:
+		loadingGroup = new Group(getFieldEditorParent(), SWT.SHADOW_NONE);
+		loadingGroup.setLayout(new GridLayout(1, true));
+		loadingGroup.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
+		loadingGroup.setText("Project loading");
+		addField(new BooleanFieldEditor(PARALLEL_LOADING, "Read project files in parallel", loadingGroup));
+		addField(new BooleanFieldEditor(LAZY_LOADING, "Parse project files only when they are needed", loadingGroup));
+		addField(new BooleanFieldEditor(COMPACT_CLOSED_DOCUMENTS, "Release the text of files that are not open in an editor", loadingGroup));
+		addField(new BooleanFieldEditor(SNAPSHOT_LOADING, "Do not parse unchanged files when the project is loaded", loadingGroup));
+		
+		// create reconciling group:
+		reconcilingGroup = new Group(getFieldEditorParent(), SWT.SHADOW_NONE);
+		reconcilingGroup.setLayout(new GridLayout(1, true));
+		reconcilingGroup.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
+		reconcilingGroup.setText("Reconciling");
+		IntegerFieldEditor minReconcileDelay = new IntegerFieldEditor(MIN_RECONCILE_DELAY, "Minimal delay in ms after typing before the model is updated", reconcilingGroup);
+		minReconcileDelay.setValidRange(0, 10000);
+		addField(minReconcileDelay);
+		IntegerFieldEditor maxReconcileDelay = new IntegerFieldEditor(MAX_RECONCILE_DELAY, "Maximal delay in ms after typing before the model is updated", reconcilingGroup);
+		maxReconcileDelay.setValidRange(0, 10000);
+		addField(maxReconcileDelay);
 		}
 
 	public void init(IWorkbench workbench) {
@@ -89,6 +129,10 @@ public class ChameleonEditorPreferencePage extends FieldEditorPreferencePage imp
 	private void performChoices() {
 		AutoCompletionProposalsComparator.nbOfDefiningTypeChecks = getPreferenceStore().getInt(NB_AUTO_COMPLETION_TYPE_SEARCH_LEVELS);
 		ChameleonAutoEditStrategy.ENABLE_AUTO_FORMATTING = getPreferenceStore().getBoolean(ENABLE_AUTO_FORMATTING);
+		ChameleonProjectNature.PARALLEL_LOADING = getPreferenceStore().getBoolean(PARALLEL_LOADING);
+		ChameleonProjectNature.LAZY_LOADING = getPreferenceStore().getBoolean(LAZY_LOADING);
+		ChameleonProjectNature.COMPACT_CLOSED_DOCUMENTS = getPreferenceStore().getBoolean(COMPACT_CLOSED_DOCUMENTS);
+		ChameleonProjectNature.SNAPSHOT_LOADING = getPreferenceStore().getBoolean(SNAPSHOT_LOADING);
 	}
 
 	public void performApply(){
@@ -108,6 +152,61 @@ public class ChameleonEditorPreferencePage extends FieldEditorPreferencePage imp
 		}
 		store.setDefault(ENABLE_AUTO_FORMATTING, true);
 		
+		if( ! store.contains(PARALLEL_LOADING)) {
+			store.setValue(PARALLEL_LOADING, true);
+		}
+		store.setDefault(PARALLEL_LOADING, true);
+		
+		if( ! store.contains(LAZY_LOADING)) {
+			store.setValue(LAZY_LOADING, false);
+		}
+		store.setDefault(LAZY_LOADING, false);
+		
+		if( ! store.contains(COMPACT_CLOSED_DOCUMENTS)) {
+			store.setValue(COMPACT_CLOSED_DOCUMENTS, true);
+		}
+		store.setDefault(COMPACT_CLOSED_DOCUMENTS, true);
+		
+		if( ! store.contains(SNAPSHOT_LOADING)) {
+			store.setValue(SNAPSHOT_LOADING, true);
+		}
+		store.setDefault(SNAPSHOT_LOADING, true);
+		
+		if( ! store.contains(MIN_RECONCILE_DELAY)) {
+			store.setValue(MIN_RECONCILE_DELAY, DEFAULT_MIN_RECONCILE_DELAY);
+		}
+		store.setDefault(MIN_RECONCILE_DELAY, DEFAULT_MIN_RECONCILE_DELAY);
+		
+		if( ! store.contains(MAX_RECONCILE_DELAY)) {
+			store.setValue(MAX_RECONCILE_DELAY, DEFAULT_MAX_RECONCILE_DELAY);
+		}
+		store.setDefault(MAX_RECONCILE_DELAY, DEFAULT_MAX_RECONCILE_DELAY);
+	}
+	
+	/**
+	 * Return the boolean preference with the given name, or the given default value
+	 * if the preference has not been set yet.
+	 */
+	public static boolean getBoolean(String name, boolean defaultValue) {
+		IPreferenceStore store = ChameleonEditorPlugin.getDefault().getPreferenceStore();
+		if(store.contains(name)) {
+			return store.getBoolean(name);
+		} else {
+			return defaultValue;
+		}
+	}
+	
+	/**
+	 * Return the integer preference with the given name, or the given default value
+	 * if the preference has not been set yet.
+	 */
+	public static int getInt(String name, int defaultValue) {
+		IPreferenceStore store = ChameleonEditorPlugin.getDefault().getPreferenceStore();
+		if(store.contains(name)) {
+			return store.getInt(name);
+		} else {
+			return defaultValue;
+		}
 	}
 	
 	@Override
@@ -1,6 +1,7 @@
 package chameleon.editor.editors.reconciler;
 
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.jface.text.Assert;
 import org.eclipse.jface.text.DocumentEvent;
 import org.eclipse.jface.text.IDocument;
@@ -29,8 +30,9 @@ import chameleon.editor.editors.ChameleonDocument;
  * processes the dirty regions as a background activity after having waited for further
  * changes for the configured duration of time. A reconciler is started using the
  * {@link #install(ITextViewer)} method.  As a first step {@link #initialProcess()} is
- * executed in the background. Then, the reconciling thread waits for changes that
- * need to be reconciled. A reconciler can be resumed by calling {@link #forceReconciling()}
+ * executed in the background. Then, the reconciler waits for changes that
+ * need to be reconciled. The background activities of all reconcilers are run by
+ * the shared {@link ReconcileScheduler}, which keeps no thread busy while nothing changes. A reconciler can be resumed by calling {@link #forceReconciling()}
  * independent from the existence of actual changes. This mechanism is for subclasses only.
  * It is the clients responsibility to stop a reconciler using its {@link #uninstall()}
  * method. Unstopped reconcilers do not free their resources.
@@ -47,32 +49,19 @@ abstract public class AbstractChameleonReconciler implements IReconciler {
 
 
 	/**
-	 * Background thread for the reconciling activity.
+	 * The reconciling activity, which is run by the shared {@link ReconcileScheduler}.
 	 */
-	class BackgroundThread extends Thread {
+	class ReconcileTask extends ReconcileScheduler.Task {
 		
 		/** Has the reconciler been canceled. */
 		private boolean fCanceled= false;
-		/** Has the reconciler been reset. */
-		private boolean fReset= false;
+		/** Has the initial process been run. */
+		private boolean fStarted= false;
 		/** Some changes need to be processed. */
 		private boolean fIsDirty= false;
 		/** Is a reconciling strategy active. */
 		private boolean fIsActive= false;
 		
-		/**
-		 * Creates a new background thread. The thread 
-		 * runs with minimal priority.
-		 *
-		 * @param name 
-		 * 	the thread's name
-		 */
-		public BackgroundThread(String name) {
-			super(name);
-			setPriority(Thread.MIN_PRIORITY);
-			setDaemon(true);
-		}
-		
 		/**
 		 * Returns whether a reconciling strategy is active right now.
 		 *
@@ -82,6 +71,13 @@ abstract public class AbstractChameleonReconciler implements IReconciler {
 			return fIsActive;
 		}
 		
+		/**
+		 * Returns whether the reconciler has been started.
+		 */
+		public synchronized boolean isStarted() {
+			return fStarted;
+		}
+		
 		/**
 		 * Returns whether some changes need to be processed.
 		 * 
@@ -93,10 +89,11 @@ abstract public class AbstractChameleonReconciler implements IReconciler {
 		}
 		
 		/**
-		 * Cancels the background thread.
+		 * Cancels the reconciling activity.
 		 */
 		public void cancel() {
 			fCanceled= true;
+			ReconcileScheduler.getDefault().cancel(this);
 			IProgressMonitor pm= fProgressMonitor;
 			if (pm != null)
 				pm.setCanceled(true);
@@ -106,7 +103,7 @@ abstract public class AbstractChameleonReconciler implements IReconciler {
 		}
 		
 		/**
-		 * Suspends the caller of this method until this background thread has
+		 * Suspends the caller of this method until the reconciling activity has
 		 * emptied the dirty region queue.
 		 */
 		public void suspendCallerWhileDirty() {
@@ -125,86 +122,76 @@ abstract public class AbstractChameleonReconciler implements IReconciler {
 		}
 		
 		/**
-		 * Reset the background thread as the text viewer has been changed,
+		 * Reset the reconciling activity as the document has been changed. The changes are
+		 * processed once no further changes have been made for the delay of the reconciler.
 		 */
 		public void reset() {
-			
-			if (fDelay > 0) {
-				
-				synchronized (this) {
-					fIsDirty= true;
-					fReset= true;
-				}
-				
-			} else {
-				
-				synchronized (this) {
-					fIsDirty= true;
-				}
-				
-				synchronized (fDirtyRegionQueue) {
-					fDirtyRegionQueue.notifyAll();
-				}
+			synchronized (this) {
+				fIsDirty= true;
 			}
-            
+			schedule();
             reconcilerReset();
 		}
 		
 		/**
-		 * The background activity. Waits until there is something in the
-		 * queue managing the changes that have been applied to the text viewer.
-		 * Removes the first change from the queue and process it.
+		 * Let the scheduler run this activity after the delay of the reconciler.
+		 */
+		public void schedule() {
+			if (!fCanceled)
+				ReconcileScheduler.getDefault().schedule(this, fDelay);
+		}
+		
+		/**
+		 * The changes to the same document are processed one after the other.
+		 */
+		@Override
+		protected Object key() {
+			ChameleonDocument document= _document;
+			return document != null ? document : this;
+		}
+		
+		/**
+		 * The activity. Processes the changes in the queue managing the changes that have
+		 * been applied to the text viewer.
 		 * <p>
-		 * Calls {@link AbstractChameleonReconciler#initialProcess()} on entrance.
+		 * Calls {@link AbstractChameleonReconciler#initialProcess()} the first time it runs.
 		 * </p>
 		 */
-		public void run() {
+		@Override
+		protected void run() {
 			
-			synchronized (fDirtyRegionQueue) {
-				try {
-					fDirtyRegionQueue.wait(fDelay);
-				} catch (InterruptedException x) {
-				}
+			if (fCanceled)
+				return;
+			
+			boolean initial;
+			synchronized (this) {
+				initial= !fStarted;
+				fStarted= true;
+			}
+			if (initial) {
+				initialProcess();
 			}
 			
-			initialProcess();
+			if (fCanceled || !isDirty())
+				return;
 			
-			while (!fCanceled) {
-				
-				synchronized (fDirtyRegionQueue) {
-					try {
-						fDirtyRegionQueue.wait(fDelay);
-					} catch (InterruptedException x) {
-					}
-				}
-					
-				if (fCanceled)
-					break;
-					
-				if (!isDirty())
-					continue;
-					
-				synchronized (this) {
-					if (fReset) {
-						fReset= false;
-						continue;
-					}
-				}
-				
+			fIsActive= true;
+			
+			boolean empty;
+			do {
 				ChameleonDirtyRegion r= null;
 				synchronized (fDirtyRegionQueue) {
 					r= fDirtyRegionQueue.removeNextDirtyRegion();
 				}
-					
-				fIsActive= true;
 				
 				if (fProgressMonitor != null)
 					fProgressMonitor.setCanceled(false);
-					
+				
 				process(r);
 				
 				synchronized (fDirtyRegionQueue) {
-					if (0 == fDirtyRegionQueue.getSize()) {
+					empty= 0 == fDirtyRegionQueue.getSize();
+					if (empty) {
 						synchronized (this) {
 							fIsDirty= fProgressMonitor != null ? fProgressMonitor.isCanceled() : false;
 						}
@@ -212,9 +199,9 @@ abstract public class AbstractChameleonReconciler implements IReconciler {
 						fDirtyRegionQueue.notifyAll();
 					}
 				}
-				
-				fIsActive= false;
-			}
+			} while (!empty && !fCanceled);
+			
+			fIsActive= false;
 		}
 	}
 	
@@ -239,11 +226,11 @@ abstract public class AbstractChameleonReconciler implements IReconciler {
 		 */
 		public void documentChanged(DocumentEvent e) {
 			
-			if (!fThread.isDirty()&& fThread.isAlive()) {
+			if (!fTask.isDirty()&& fTask.isStarted()) {
 				aboutToBeReconciled();
 			}
 			
-			if (fProgressMonitor != null && fThread.isActive()) {
+			if (fProgressMonitor != null && fTask.isActive()) {
 				fProgressMonitor.setCanceled(true);
 			}
 				
@@ -251,7 +238,7 @@ abstract public class AbstractChameleonReconciler implements IReconciler {
 				createDirtyRegion(e);
 			}
 			
-			fThread.reset();
+			fTask.reset();
 			
 		}
 				
@@ -266,12 +253,14 @@ abstract public class AbstractChameleonReconciler implements IReconciler {
 					_document.removeDocumentListener(this);
 					
 				if (fIsIncrementalReconciler) {
-					fDirtyRegionQueue.purgeQueue();
+					synchronized (fDirtyRegionQueue) {
+						fDirtyRegionQueue.purgeQueue();
+					}
 					if (_document != null && _document.getLength() > 0) {
 						DocumentEvent e= new DocumentEvent(_document, 0, _document.getLength(), null);
 						createDirtyRegion(e);
-						fThread.reset();
-						fThread.suspendCallerWhileDirty();
+						fTask.reset();
+						fTask.suspendCallerWhileDirty();
 					}
 				}
 				
@@ -298,12 +287,12 @@ abstract public class AbstractChameleonReconciler implements IReconciler {
 	
 	/** Queue to manage the changes applied to the text viewer. */
 	private DirtyRegionQueue fDirtyRegionQueue;
-	/** The background thread. */
-	private BackgroundThread fThread;
+	/** The reconciling activity. */
+	private ReconcileTask fTask;
 	/** Internal document and text input listener. */
 	private Listener fListener;
-	/** The background thread delay. */
-	private int fDelay= 250; 
+	/** The delay after the last change before the changes are processed. */
+	private volatile int fDelay= 250; 
 	/** Are there incremental reconciling strategies? */
 	private boolean fIsIncrementalReconciler= true;
 	/** The progress monitor used by this reconciler. */
@@ -424,9 +413,9 @@ abstract public class AbstractChameleonReconciler implements IReconciler {
 		
 		Assert.isNotNull(textViewer);
 		synchronized (this) {
-			if (fThread != null)
+			if (fTask != null)
 				return;
-			fThread= new BackgroundThread(getClass().getName());
+			fTask= new ReconcileTask();
 		}
 		
 		_textViewer= textViewer;
@@ -435,6 +424,10 @@ abstract public class AbstractChameleonReconciler implements IReconciler {
 		_textViewer.addTextInputListener(fListener);
 		
 		fDirtyRegionQueue= new DirtyRegionQueue();
+		
+		// The monitor is canceled when the document changes while it is being reconciled.
+		if (fProgressMonitor == null)
+			setProgressMonitor(new NullProgressMonitor());
 	}
 	
 	/*
@@ -449,32 +442,34 @@ abstract public class AbstractChameleonReconciler implements IReconciler {
 			
             synchronized (this) {
                 // http://dev.eclipse.org/bugs/show_bug.cgi?id=19135
-    			BackgroundThread bt= fThread;
-    			fThread= null;
-    			bt.cancel();
+    			ReconcileTask task= fTask;
+    			fTask= null;
+    			task.cancel();
             }
 		}
 	}
 		
 	/**
 	 * Creates a dirty region for a document event and adds it to the queue.
+	 * The queue is locked while the region is added, since it can be merged into
+	 * the last region on the queue, which the background thread can be removing.
 	 *
 	 * @param e the document event for which to create a dirty region
 	 */
 	private void createDirtyRegion(DocumentEvent e) {
-		
-		if (e.getLength() == 0 && e.getText() != null) {
-			// Insert
-			fDirtyRegionQueue.addDirtyRegion(new ChameleonDirtyRegion(e.getOffset(), e.getText().length(), ChameleonDirtyRegion.INSERT, e.getText()));
-				
-		} else if (e.getText() == null || e.getText().length() == 0) {
-			// Remove
-			fDirtyRegionQueue.addDirtyRegion(new ChameleonDirtyRegion(e.getOffset(), e.getLength(), ChameleonDirtyRegion.REMOVE, null));
-				
-		} else {
-			// Replace (Remove + Insert)
-			fDirtyRegionQueue.addDirtyRegion(new ChameleonDirtyRegion(e.getOffset(), e.getLength(), ChameleonDirtyRegion.REMOVE, null));
-			fDirtyRegionQueue.addDirtyRegion(new ChameleonDirtyRegion(e.getOffset(), e.getText().length(), ChameleonDirtyRegion.INSERT, e.getText()));
+		synchronized (fDirtyRegionQueue) {
+			if (e.getLength() == 0 && e.getText() != null) {
+				// Insert
+				fDirtyRegionQueue.addDirtyRegion(new ChameleonDirtyRegion(e.getOffset(), e.getText().length(), ChameleonDirtyRegion.INSERT, e.getText()));
+					
+			} else if (e.getText() == null || e.getText().length() == 0) {
+				// Remove
+				fDirtyRegionQueue.addDirtyRegion(new ChameleonDirtyRegion(e.getOffset(), e.getLength(), ChameleonDirtyRegion.REMOVE, null));
+					
+			} else {
+				// Replace
+				fDirtyRegionQueue.addDirtyRegion(new ChameleonDirtyRegion(e.getOffset(), e.getLength(), ChameleonDirtyRegion.REPLACE, e.getText()));
+			}
 		}
 	}
 	
@@ -523,25 +518,18 @@ abstract public class AbstractChameleonReconciler implements IReconciler {
 	 * Clients may extend this method.
 	 */
 	protected synchronized void startReconciling() {
-		if (fThread == null)
+		if (fTask == null)
 			return;
 			
-		if (!fThread.isAlive()) {
-			try {
-				fThread.start();
-			} catch (IllegalThreadStateException e) {
-				// see https://bugs.eclipse.org/bugs/show_bug.cgi?id=40549
-				// This is the only instance where the thread is started; since
-				// we checked that it is not alive, it must be dead already due
-				// to a run-time exception or error. Exit.
-			}
+		if (!fTask.isStarted()) {
+			fTask.schedule();
 		} else {
-			fThread.reset();
+			fTask.reset();
 		}
 	}
     
     /**
-     * Hook that is called after the reconciler thread has been reset.
+     * Hook that is called after the reconciling activity has been reset.
      */
     protected void reconcilerReset() {
     }
@@ -23,6 +23,11 @@ public class ChameleonDirtyRegion extends DirtyRegion/*implements ITypedRegion*/
 	 * Identifies a remove operation.
 	 */
 	final static public String REMOVE= "__remove"; //$NON-NLS-1$
+	/**
+	 * Identifies an operation that removes text and inserts other text at its place.
+	 * The length of such a region is the length of the removed text.
+	 */
+	final static public String REPLACE= "__replace"; //$NON-NLS-1$
 	
 	/** The region's offset. */
 	private int fOffset2;
@@ -38,7 +43,7 @@ public class ChameleonDirtyRegion extends DirtyRegion/*implements ITypedRegion*/
 	 * 
 	 * @param offset the offset within the document where the change occurred
 	 * @param length the length of the text within the document that changed
-	 * @param type the type of change that this region represents: {@link #INSERT} {@link #REMOVE}
+	 * @param type the type of change that this region represents: {@link #INSERT} {@link #REMOVE} {@link #REPLACE}
 	 * @param text the substitution text
 	 */
 	public ChameleonDirtyRegion(int offset, int length, String type, String text) {
@@ -80,15 +85,57 @@ public class ChameleonDirtyRegion extends DirtyRegion/*implements ITypedRegion*/
 	}
 	
 	/**
-	 * Modify the receiver so that it encompasses the region specified by the dirty region.
+	 * Return the length of the text that has been removed.
+	 */
+	public int getRemovedLength() {
+		return fType2 == INSERT ? 0 : fLength2;
+	}
+	
+	/**
+	 * Return the length of the text that has been inserted.
+	 */
+	public int getInsertedLength() {
+		return fText2 == null ? 0 : fText2.length();
+	}
+	
+	/**
+	 * Modify the receiver so that it represents the change of the receiver followed by the
+	 * change of the given dirty region, if the given region touches the text that results
+	 * from the receiver. The combined change removes the text that either change removed
+	 * from the original text, and inserts the text that remains of the inserted text.
 	 * 
-	 * @param dr the dirty region with which to merge
+	 * @param dr the dirty region that follows the receiver
+	 * @return True if the regions have been merged, false if they do not touch.
 	 */
-	void mergeWith(ChameleonDirtyRegion dr) {
-		int start= Math.min(fOffset2, dr.fOffset2);
-		int end= Math.max(fOffset2 + fLength2, dr.fOffset2 + dr.fLength2);
-		fOffset2= start;
-		fLength2= end - start;
-		fText2= (dr.fText2 == null ? fText2 : (fText2 == null) ? dr.fText2 : fText2 + dr.fText2);
+	boolean mergeWith(ChameleonDirtyRegion dr) {
+		int inserted = getInsertedLength();
+		int removed = getRemovedLength();
+		int offset2 = dr.fOffset2;
+		int removed2 = dr.getRemovedLength();
+		if(offset2 > fOffset2 + inserted || offset2 + removed2 < fOffset2) {
+			return false;
+		}
+		// The parts of the second change that fall outside of the inserted text remove original text.
+		removed += Math.max(0, fOffset2 - offset2) + Math.max(0, offset2 + removed2 - (fOffset2 + inserted));
+		String text = (fText2 == null ? "" : fText2);
+		String text2 = (dr.fText2 == null ? "" : dr.fText2);
+		int keptBefore = Math.max(0, Math.min(inserted, offset2 - fOffset2));
+		int keptAfter = Math.max(0, Math.min(inserted, offset2 + removed2 - fOffset2));
+		text = text.substring(0, keptBefore) + text2 + text.substring(keptAfter);
+		fOffset2 = Math.min(fOffset2, offset2);
+		if(removed == 0) {
+			fType2 = INSERT;
+			fLength2 = text.length();
+			fText2 = text;
+		} else if(text.length() == 0) {
+			fType2 = REMOVE;
+			fLength2 = removed;
+			fText2 = null;
+		} else {
+			fType2 = REPLACE;
+			fLength2 = removed;
+			fText2 = text;
+		}
+		return true;
 	}
 }
\ No newline at end of file
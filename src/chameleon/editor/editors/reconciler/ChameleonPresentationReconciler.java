@@ -5,6 +5,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.ITextViewer;
@@ -75,13 +76,18 @@ public class ChameleonPresentationReconciler extends AbstractChameleonReconciler
 	/**
 	 * Colors the document where this presentationReconciler is used
 	 * Folding is also done.
+	 * Nothing more is done once the reconciling strategy has been canceled.
 	 */
 	public void doPresentation(){
 		if (presenting) return;
 		presenting = true;
 		
-		doFolding();
-		doColoring();
+		if(! _strategy.isCanceled()) {
+			doFolding();
+		}
+		if(! _strategy.isCanceled()) {
+			doColoring();
+		}
 //    doVerificationErrors();
 		
 		presenting = false;
@@ -145,6 +151,27 @@ public class ChameleonPresentationReconciler extends AbstractChameleonReconciler
 	  attributes.put(IMarker.LINE_NUMBER, lineNumber);
 	}
 
+	/**
+	 * The attribute that marks the problem markers of syntax errors.
+	 */
+	public static final String SYNTAX_ERROR = "chameleon.syntaxError";
+	
+	/**
+	 * Remove the markers of the syntax errors that lie within the region with the given
+	 * offset and length. The syntax errors in that region are reported again when it is parsed.
+	 */
+	public static void removeSyntaxErrorMarkers(ChameleonDocument document, int offset, int length) {
+		try {
+			for(IMarker marker: document.getFile().findMarkers(IMarker.PROBLEM, false, IResource.DEPTH_ZERO)) {
+				if(marker.getAttribute(SYNTAX_ERROR, false) && marker.getAttribute(IMarker.CHAR_START, -1) >= offset && marker.getAttribute(IMarker.CHAR_END, -1) <= offset + length) {
+					marker.delete();
+				}
+			}
+		} catch (CoreException e) {
+			e.printStackTrace();
+		}
+	}
+
 	public static HashMap<String, Object> createProblemMarkerMap(String message) {
 		HashMap<String, Object> attributes = new HashMap<String, Object>();
 		attributes.put(IMarker.SEVERITY,IMarker.SEVERITY_ERROR);
@@ -155,7 +182,7 @@ public class ChameleonPresentationReconciler extends AbstractChameleonReconciler
 	//Do the coloring
 	private void doColoring(){
 		try {
-			((ChameleonDocument)this._document).doPresentation(_textViewer);
+			((ChameleonDocument)this._document).doPresentation(_textViewer, _strategy.getProgressMonitor());
 		} catch (ClassCastException e){
 			e.printStackTrace();
 		}
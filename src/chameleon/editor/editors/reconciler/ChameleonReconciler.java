@@ -8,6 +8,7 @@ import org.eclipse.jface.text.reconciler.IReconcilingStrategyExtension;
 
 import chameleon.editor.editors.ChameleonDocument;
 import chameleon.editor.editors.ChameleonEditor;
+import chameleon.editor.editors.preferences.ChameleonEditorPreferencePage;
 
 
 /**
@@ -18,12 +19,46 @@ import chameleon.editor.editors.ChameleonEditor;
  * A reconciler for a ChameleonDocument.
  * It processes Dirty regions and reconciles documents 
  *
+ * The delay after the last change before the document is reconciled adapts to the
+ * measured cost of reconciling and to the rate at which the user types, within the
+ * bounds set in the preferences. A small document is reconciled as soon as typing
+ * pauses for the smallest delay, while a large document is only reconciled when typing stops.
  */
 public class ChameleonReconciler extends AbstractChameleonReconciler{
 //	/**The editor where this reconciler is used **/
 //	private ChameleonEditor editor;
 	/** The reconciling strategy. */
 	private IChameleonReconcilingStrategy fStrategy;
+	
+	/**
+	 * Return the smallest delay in milliseconds after the last change before the changes are reconciled.
+	 * The preference is read every time, so a change takes effect for the next changes.
+	 */
+	public static int minDelay() {
+		return ChameleonEditorPreferencePage.getInt(ChameleonEditorPreferencePage.MIN_RECONCILE_DELAY, ChameleonEditorPreferencePage.DEFAULT_MIN_RECONCILE_DELAY);
+	}
+	
+	/**
+	 * Return the largest delay in milliseconds after the last change before the changes are reconciled.
+	 */
+	private static int maxDelay() {
+		return ChameleonEditorPreferencePage.getInt(ChameleonEditorPreferencePage.MAX_RECONCILE_DELAY, ChameleonEditorPreferencePage.DEFAULT_MAX_RECONCILE_DELAY);
+	}
+	
+	// Changes that are further apart than this number of milliseconds do not count as typing.
+	private static final long TYPING_PAUSE = 2000;
+	
+	// The weight of a new measurement in the moving averages.
+	private static final double WEIGHT = 0.3;
+	
+	// The moving averages in milliseconds of the time it takes to reconcile, and of the time
+	// between two changes while typing. Negative if nothing has been measured yet.
+	private double _averageCost = -1;
+	
+	private double _averageInterval = -1;
+	
+	// The time in milliseconds of the last change.
+	private long _lastChange;
 
 
 	/**
@@ -49,7 +84,28 @@ public class ChameleonReconciler extends AbstractChameleonReconciler{
 	
 	// called when complete dirty region queue is reconciled
 	protected void reconciled() {
+		long start = System.nanoTime();
 		fStrategy.startReconciling();
+		_averageCost = average(_averageCost, (System.nanoTime() - start) / 1000000.0);
+		setDelay(adaptiveDelay());
+	}
+	
+	/**
+	 * Return the delay for the next changes. The changes are not reconciled sooner than twice
+	 * the average cost of reconciling, so reconciling takes at most a third of the time while
+	 * typing. If reconciling costs more than half the average time between two keystrokes,
+	 * the delay also spans two keystrokes, so the document is only reconciled when typing pauses.
+	 */
+	protected int adaptiveDelay() {
+		double delay = 2 * _averageCost;
+		if(_averageInterval > 0 && 2 * _averageCost > _averageInterval) {
+			delay = Math.max(delay, 2 * _averageInterval);
+		}
+		return (int) Math.max(minDelay(), Math.min(maxDelay(), delay));
+	}
+	
+	private static double average(double average, double value) {
+		return average < 0 ? value : average + WEIGHT * (value - average);
 	}
 		
 	/*
@@ -86,6 +142,7 @@ public class ChameleonReconciler extends AbstractChameleonReconciler{
 	 */
 	public void setProgressMonitor(IProgressMonitor monitor) {
 		super.setProgressMonitor(monitor);
+		fStrategy.setProgressMonitor(monitor);
 		if (fStrategy instanceof IReconcilingStrategyExtension) {
 			IReconcilingStrategyExtension extension= (IReconcilingStrategyExtension) fStrategy;
 			extension.setProgressMonitor(monitor);
@@ -110,6 +167,12 @@ public class ChameleonReconciler extends AbstractChameleonReconciler{
 	 * @see chameleonEditor.editors.reconciler.AbstractChameleonReconciler#docAboutToBeChanged()
 	 */
     protected void docAboutToBeChanged(){
+    	long now = System.currentTimeMillis();
+    	if(_lastChange > 0 && now - _lastChange < TYPING_PAUSE) {
+    		_averageInterval = average(_averageInterval, now - _lastChange);
+    	}
+    	_lastChange = now;
+    	setDelay(adaptiveDelay());
     	fStrategy.initReconciling();
     }
 
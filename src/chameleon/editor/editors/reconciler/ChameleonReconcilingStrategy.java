@@ -3,27 +3,36 @@ package chameleon.editor.editors.reconciler;
 
 import java.awt.event.ActionListener;
 import java.util.ArrayList;
-
-import org.eclipse.jface.text.BadPositionCategoryException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.IRegion;
 import org.eclipse.jface.text.Position;
+import org.rejuse.predicate.SafePredicate;
 
 import chameleon.core.Config;
 import chameleon.core.compilationunit.CompilationUnit;
 import chameleon.core.element.Element;
 import chameleon.core.language.Language;
-import chameleon.core.namespace.Namespace;
 import chameleon.core.validation.BasicProblem;
 import chameleon.core.validation.Invalid;
 import chameleon.core.validation.VerificationResult;
+import chameleon.editor.connector.EclipseEditorInputProcessor;
 import chameleon.editor.connector.EclipseEditorTag;
 import chameleon.editor.editors.ChameleonDocument;
 import chameleon.editor.editors.ChameleonSourceViewerConfiguration;
 import chameleon.editor.project.ChameleonProjectNature;
 import chameleon.exception.ChameleonProgrammerException;
 import chameleon.input.ModelFactory;
-import chameleon.oo.type.Type;
+import chameleon.input.ParseException;
 
 
 /**
@@ -57,7 +66,6 @@ public class ChameleonReconcilingStrategy implements IChameleonReconcilingStrate
 	 *
 	 */
 	public ChameleonReconcilingStrategy(ChameleonSourceViewerConfiguration configuration){
-		_alreadyInit = false;
 		_firstDR = true;
 		this._configuration = configuration;
 	}
@@ -81,12 +89,11 @@ public class ChameleonReconcilingStrategy implements IChameleonReconcilingStrate
 	// checks if there are dirty regions ?
 	private boolean _firstDR;
 	
-	//check whether reconciling is initiated
-	private boolean _alreadyInit;
 	//the document to which this ReconcilingStrategy applies
 	private ChameleonDocument _document;
-	//Vector containing clones of positions
-	private ArrayList<ClonedChameleonPosition> clonedPositions = new ArrayList<ClonedChameleonPosition>();
+	// The regions of the document that have changed and have not been mapped to an element yet,
+	// in the coordinates of the current text. They are moved by every later change.
+	private List<Position> _dirtyRegions = new ArrayList<Position>();
 	// Vector containing all the dirtyPositions in this document
 	private ArrayList<ClonedChameleonPosition> dirtyPositions = new ArrayList<ClonedChameleonPosition>();
 	//states whether the whole document is dirty
@@ -105,34 +112,12 @@ public class ChameleonReconcilingStrategy implements IChameleonReconcilingStrate
 	
 	private ArrayList<ActionListener> modelListeners = new ArrayList<ActionListener>();
 	
-	// initialize reconciling
-	// positions are cloned
 	/**
-	 * initializes reconciling, during which the positions are saved
+	 * Nothing has to be prepared before the document changes: the editor tags of the document
+	 * are kept up to date with the text, and the changed regions are mapped to them when
+	 * reconciling starts.
 	 */
 	public void initReconciling(){
-		if(_alreadyInit == false){
-			clonePositions();
-			_alreadyInit = true;
-		}
-	}
-	
-	/*
-	 * clones all the positions
-	 */
-	private void clonePositions(){
-		Position[] positions = null;
-		try {
-			positions = _document.getPositions(EclipseEditorTag.CHAMELEON_CATEGORY);
-		} catch (BadPositionCategoryException e) {
-			e.printStackTrace();
-		}
-				
-		EclipseEditorTag eP = null;
-		for(int i=0; i<positions.length; i++){
-			eP = (EclipseEditorTag)positions[i];
-			clonedPositions.add(cloneDecorator(eP));
-		}
 	}
 	
 	private ClonedChameleonPosition cloneDecorator(EclipseEditorTag dec) {
@@ -149,7 +134,11 @@ public class ChameleonReconcilingStrategy implements IChameleonReconcilingStrate
 		if(DEBUG) {
 		  System.out.println("starting reconciling,in chameleonReconcilingStrategy");
 		}
-		clonedPositions.clear();
+		// While the document is changing, the editor tags may not reflect all changed regions yet.
+		if(! isCanceled()) {
+			resolveDirtyRegions();
+			mergeDirtyPositions();
+		}
 //		if(DEBUG) {
 //		  try {
 //				System.out.println("Number of positions in document: "+getDocument().getPositions(EclipseEditorTag.CHAMELEON_CATEGORY).length);
@@ -158,60 +147,52 @@ public class ChameleonReconcilingStrategy implements IChameleonReconcilingStrate
 //			}
 //		}
 		
+		// Whether the model has been changed. If reconciling is canceled, the changes that have
+		// not been processed yet are kept for the next time.
+		boolean modelChanged = false;
 		if(isWholeDocumentDirty()){
-			if(DEBUG) {
-			  System.out.println("\n 2. verwerken hele document");
-			}
-			try{
-				parseWholeDocument(_document);
+			if(! isCanceled()) {
 				if(DEBUG) {
-				  System.out.println("    verwerken hele document geslaagd!");
+				  System.out.println("\n 2. verwerken hele document");
 				}
-			}catch(Exception err){
-				err.printStackTrace();
-				if(DEBUG) {
-				  System.out.println("    verwerken hele document NIET geslaagd! ");
+				boolean current = true;
+				try{
+					current = parseWholeDocument(_document);
+					if(DEBUG) {
+					  System.out.println("    verwerken hele document geslaagd!");
+					}
+				}catch(Exception err){
+					err.printStackTrace();
+					if(DEBUG) {
+					  System.out.println("    verwerken hele document NIET geslaagd! ");
+					}
 				}
+				// If the document has changed during the parse, the result is out of date.
+				setWholeDocumentDirty(! current);
+				dirtyPositions.clear();
+				_stale.clear();
+				_dirtyRegions.clear();
+				modelChanged = true;
 			}
 		}
 		else{
       if(DEBUG) {
 			  System.out.println("\n 2. Verwerken kleinst gewijzigde posities");
       }
-			removeCoveredPositions();
-			boolean[] status = new boolean[dirtyPositions.size()];		
-			for(int i=0; i<dirtyPositions.size(); i++){
-				status[i] = true;
-			}
-			Position[] positions = null;
-			for(int i=0; i<dirtyPositions.size(); i++){
-				if(status[i] == true){
-					ClonedChameleonPosition position = dirtyPositions.get(i);
-					//System.out.println("  verwerken positie --> offset: "+position2.getOffset()+" - lengte: "+position2.getLength()+" - element: "+position.getElement().getClass().getName());
-					try{
-						
-						// A. Verwijderen decorators van element
-						
-						getDocument().removePosition(EclipseEditorTag.CHAMELEON_CATEGORY,position);
-						// FIXME: positions is always null, making this call useless
-//						removeEmbeddedPos(position, positions, status);						
-		
-						Element element = position.getElement();
-						
-						// B. reparsen element
-						
-						ModelFactory factory = getDocument().compilationUnit().language().connector(ModelFactory.class);
-						String text = getDocument().get(position.getOffset(), position.getLength());
-						factory.reParse(element);
-//						element.reParse(new DocumentEditorToolExtension(getDocument()),getDocument().modelFactory());
-						
-						
-						//System.out.println("  verwerken positie geslaagd\n");
-					}catch(Exception e){
-						//e.printStackTrace();
-						reparseEntireDocument(status, positions, i);
+			// The regions of the elements that have been parsed again. A dirty position in such a
+			// region has been handled, even if its element has been replaced.
+			List<Position> reparsed = new ArrayList<Position>();
+			Iterator<ClonedChameleonPosition> positions = dirtyPositions.iterator();
+			while(positions.hasNext() && ! isCanceled()){
+				ClonedChameleonPosition position = positions.next();
+				positions.remove();
+				modelChanged = true;
+				if(! isCovered(position, reparsed)){
+					if(! reparseNearestUnit(position.getElement(), reparsed)){
+						reparseEntireDocument(position);
+						dirtyPositions.clear();
+						break;
 					}
-					status[i] = false;
 				}
 			}
 			
@@ -223,24 +204,111 @@ public class ChameleonReconcilingStrategy implements IChameleonReconcilingStrate
 		//System.out.println("--------------------");
 		//System.out.println(" ==> Posities na synchronisatie");
 		//getDocument().printPositions(Decorator.CHAMELEON_CATEGORY);
-		dirtyPositions.clear();
-		clonePositions();
 		this._firstDR = true;
 		
-		nature().flushProjectCache();
+		// The caches must not keep results for the parts of the model that have been replaced.
+		if(modelChanged || ! isCanceled()) {
+			nature().flushCache(getDocument().compilationUnit());
+		}
 		//checkVerificationErrors();
-		fireModelUpdated();
+		if(! isCanceled()) {
+			fireModelUpdated();
+		}
 		
 	}
 	
+	/**
+	 * Map the changed regions to the smallest elements that contain them. If a region is not
+	 * contained in an element, the whole document is dirty. The dirty positions that were kept
+	 * after reconciling was canceled are first moved to the current locations of their elements.
+	 */
+	private void resolveDirtyRegions() {
+		List<Element> kept = new ArrayList<Element>();
+		for(ClonedChameleonPosition position: dirtyPositions) {
+			kept.add(position.getElement());
+		}
+		dirtyPositions.clear();
+		// A stale element is parsed again, since a change elsewhere can repair its syntax error.
+		for(Element element: _stale) {
+			if(isConnected(element)) {
+				kept.add(element);
+			}
+		}
+		_stale.clear();
+		for(Element element: kept) {
+			Object tag = element.tag(EclipseEditorTag.ALL_TAG);
+			if(tag instanceof EclipseEditorTag && ! ((EclipseEditorTag)tag).isDeleted()) {
+				addListDirtyPositions(cloneDecorator((EclipseEditorTag)tag));
+			}
+		}
+		if(! isWholeDocumentDirty()) {
+			for(Position region: _dirtyRegions) {
+				ClonedChameleonPosition coveringPos = getSmallestCoveringPos(region.getOffset(), region.getLength(), true);
+				if(coveringPos != null){
+					addListDirtyPositions(coveringPos);
+				}
+				else{
+					System.out.println("     => HELE DOCUMENT VERVUILD");
+					setWholeDocumentDirty(true);
+					break;
+				}
+			}
+		}
+		_dirtyRegions.clear();
+	}
+	
+	private IProgressMonitor _monitor;
+	
+	/**
+	 * Set the progress monitor that is canceled when the document changes while it is being reconciled.
+	 */
+	public void setProgressMonitor(IProgressMonitor monitor) {
+		_monitor = monitor;
+	}
+	
+	public IProgressMonitor getProgressMonitor() {
+		return _monitor;
+	}
+	
+	/**
+	 * Check whether the current reconcile has been canceled because the document has changed
+	 * again. The work that is still to be done is then stale, and is abandoned.
+	 */
+	public boolean isCanceled() {
+		IProgressMonitor monitor = _monitor;
+		return monitor != null && monitor.isCanceled();
+	}
+	
 	public static VerificationResult checkVerificationErrors(ChameleonDocument document) {
+		return checkVerificationErrors(document, null);
+	}
+	
+	/**
+	 * Verify the compilation unit of the given document and mark its problems. Only the elements
+	 * that have changed since the previous verification are verified again: the results of the
+	 * other elements are taken from the verification cache of the project. The dependencies of the
+	 * compilation unit are recorded afterwards, so the project nature knows which verification
+	 * results to forget when another compilation unit changes. If the given monitor is canceled
+	 * before the problems are marked, null is returned and nothing is marked.
+	 */
+	public static VerificationResult checkVerificationErrors(ChameleonDocument document, IProgressMonitor monitor) {
+		if(monitor != null && monitor.isCanceled()) {
+			return null;
+		}
 		VerificationResult result = null;
 		try {
 		  CompilationUnit cu = document.compilationUnit();
-		  result = cu.verify();
+		  result = document.getProjectNature().verificationCache().verify(cu, monitor);
+		  if(result != null) {
+		    // Verification has resolved all cross-references, so recording the dependencies is cheap.
+		    document.getProjectNature().dependencyTracker().record(cu);
+		  }
 		} catch(Exception exc) {
 			exc.printStackTrace();
 		}
+		if(monitor != null && monitor.isCanceled()) {
+			return null;
+		}
 		if(result instanceof Invalid) {
 		  for(BasicProblem problem: ((Invalid)result).problems()) {
 			  ChameleonPresentationReconciler.markError(problem,document);
@@ -254,29 +322,159 @@ public class ChameleonReconcilingStrategy implements IChameleonReconcilingStrate
 		return getDocument().getProjectNature();
 	}
 
-	private void reparseEntireDocument(boolean[] status, Position[] positions, int i) {
+	/**
+	 * Parse the given element, or else the nearest ancestor of it that can be parsed on its own,
+	 * and replace that subtree in the model. The compilation unit itself is not parsed:
+	 * parsing the whole document is left to the caller.
+	 * 
+	 * Element types for which parsing failed for another reason than a syntax error while parsing
+	 * their parent succeeded cannot be parsed on their own, and are skipped from then on.
+	 * 
+	 * If an element cannot be parsed, its last version that was parsed successfully is kept,
+	 * together with its tags. If the text contains a syntax error that none of the ancestors
+	 * can be parsed with, the element is kept as a stale element, and only the syntax error
+	 * is reported. The compilation unit is then not parsed again, so typing through a syntax
+	 * error stays cheap. The stale element is parsed again at the next reconcile.
+	 * 
+	 * The markers of the syntax errors are only changed after the lock on the document and
+	 * the lock on the model of the project have been released, since changing a marker
+	 * notifies the resource listeners of the workspace.
+	 * 
+	 * @param reparsed
+	 * 		The region of the element that has been parsed again is added to this list.
+	 * @return True if the element has been handled. False if the whole document must be parsed.
+	 */
+	private boolean reparseNearestUnit(Element element, List<Position> reparsed) {
+		List<Class<?>> failed = new ArrayList<Class<?>>();
+		boolean syntaxError = false;
+		for(Element current = element; current != null && ! (current instanceof CompilationUnit); current = current.parent()) {
+			if(_notReparseable.contains(current.getClass()) || ! (current.tag(EclipseEditorTag.ALL_TAG) instanceof EclipseEditorTag)) {
+				continue;
+			}
+			EclipseEditorTag location = (EclipseEditorTag) current.tag(EclipseEditorTag.ALL_TAG);
+			if(location.isDeleted()) {
+				continue;
+			}
+			Lock lock = getDocument().modelLock();
+			lock.lock();
+			// The subtree is replaced in the model that is shared with the other documents of the project.
+			Lock modelLock = nature().modelLock();
+			modelLock.lock();
+			long version = getDocument().version();
+			int offset = location.getOffset();
+			int length = location.getLength();
+			List<EclipseEditorTag> removed = null;
+			List<Map<String,Object>> parseErrors = new ArrayList<Map<String,Object>>();
+			try{
+				// A. Verwijderen decorators van element en zijn afstammelingen
+				removed = getDocument().removeEditorTags(current, offset, length);
+				// B. reparsen element
+				ModelFactory factory = getDocument().compilationUnit().language().connector(ModelFactory.class);
+				EclipseEditorInputProcessor processor = nature().inputProcessor();
+				boolean parsed = false;
+				processor.startSession(getDocument(), parseErrors);
+				try {
+					factory.reParse(current);
+					parsed = true;
+				} finally {
+					if(! parsed) {
+						// The tags of a failed parse belong to a subtree that is not part of the model.
+						processor.abortSession();
+					}
+				}
+				if(! processor.finishSession()) {
+					// The document has changed during the parse, so the tags of the new subtree
+					// have been discarded. The region is mapped to an enclosing element again
+					// when the changes that follow are reconciled.
+					_dirtyRegions.add(new Position(offset, length));
+				}
+				_notReparseable.addAll(failed);
+				reparsed.add(new Position(offset, length));
+				getDocument().elementReparsed();
+				return true;
+			}catch(Exception e){
+				if(DEBUG) {
+					System.out.println("Parsing "+current.getClass().getName()+" mislukt. Proberen omvattend element te verwerken");
+				}
+				if(getDocument().version() != version) {
+					// The text has changed during the parse, so the failure says nothing about the
+					// element, and the removed tags no longer match the text. The region is
+					// mapped to an enclosing element again when the changes that follow are reconciled.
+					_dirtyRegions.add(new Position(offset, length));
+					return true;
+				}
+				// Keep the last version of the subtree that was parsed successfully.
+				if(removed != null) {
+					getDocument().restoreEditorTags(removed);
+				}
+				if(e instanceof ParseException) {
+					// A syntax error is usually a transient state of the text, and says nothing
+					// about whether elements of this type can be parsed on their own.
+					syntaxError = true;
+				} else {
+					failed.add(current.getClass());
+				}
+			} finally {
+				modelLock.unlock();
+				lock.unlock();
+				// The syntax errors in the region are replaced by those of the new parse.
+				ChameleonPresentationReconciler.removeSyntaxErrorMarkers(getDocument(), offset, length);
+				for(Map<String,Object> attributes: parseErrors) {
+					ChameleonPresentationReconciler.addProblemMarker(attributes, getDocument());
+				}
+			}
+		}
+		if(syntaxError) {
+			_stale.add(element);
+			return true;
+		}
+		return false;
+	}
+	
+	// The types of the elements that cannot be parsed on their own.
+	private Set<Class<?>> _notReparseable = new HashSet<Class<?>>();
+	
+	// The elements whose text contains a syntax error. They keep the subtree of their last successful parse.
+	private List<Element> _stale = new ArrayList<Element>();
+	
+	/**
+	 * Check whether the given element is still part of the model of the document.
+	 */
+	private boolean isConnected(Element element) {
+		Element root = element;
+		while(root.parent() != null) {
+			root = root.parent();
+		}
+		return root == getDocument().compilationUnit();
+	}
+	
+	private static boolean isCovered(Position position, List<Position> regions) {
+		for(Position region: regions) {
+			if(position.getOffset() >= region.getOffset() && end(position) <= end(region)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private static int end(Position position) {
+		return position.getOffset() + position.getLength();
+	}
+
+	private void reparseEntireDocument(ClonedChameleonPosition pos) {
 		try{
 			if(DEBUG) {
 			  System.out.println("Members verwerken mislukt. Proberen hele document verwerken");
 			}
-			parseWholeDocument(_document);
-			//System.out.println("  verwerken hele document geslaagd");
-			for(int n=0; n<dirtyPositions.size(); n++){
-				status[n] = false;
+			if(! parseWholeDocument(_document)) {
+				setWholeDocumentDirty(true);
 			}
 		}catch(Exception err){
 			//System.out.println("  verwerken positie niet geslaagd");
 			//System.out.println("   => positie(s) en element verwijderd");
-			ClonedChameleonPosition pos = ((ClonedChameleonPosition) dirtyPositions.get(i));
-			pos.getElement().disconnect();
-			try{
-				getDocument().removePosition(EclipseEditorTag.CHAMELEON_CATEGORY,pos);				
-				// FIXME: positions is always null, making this call useless
-//				removeEmbeddedPos(pos, positions, status);
-			}catch(Exception error){
-				error.printStackTrace();
-			}	
-			
+			Element element = pos.getElement();
+			getDocument().removeEditorTags(element, pos.getOffset(), pos.getLength());
+			element.disconnect();
 		}
 	}
 	
@@ -290,136 +488,118 @@ public class ChameleonReconcilingStrategy implements IChameleonReconcilingStrate
 		}
 	}
 
-	/*
-	 * 
+	/**
+	 * Merge the dirty positions. A position that lies within another dirty position is dropped,
+	 * and two dirty positions that overlap are replaced by the smallest cloned position that
+	 * covers both. If there is no such position, the whole document is dirty.
 	 */
-	private void removeEmbeddedPos(ClonedChameleonPosition pos, Position[] positions, boolean[] status){
-		try{
-			ClonedChameleonPosition posB = null;
-			for(int i=0; i<positions.length; i++){
-				posB = (ClonedChameleonPosition)positions[i];
-				if(posB.getOffset()>pos.getOffset() && 
-				   (posB.getOffset()+posB.getLength())<(pos.getOffset()+pos.getLength())){
-					getDocument().removePosition(EclipseEditorTag.CHAMELEON_CATEGORY,posB);				
-					for(int n=0; n<status.length; n++){
-						if((dirtyPositions.get(n)) == posB){
-							status[n] = false;
-						}
+	private void mergeDirtyPositions(){
+		List<ClonedChameleonPosition> positions = new ArrayList<ClonedChameleonPosition>(dirtyPositions);
+		boolean merged = true;
+		while(merged){
+			merged = false;
+			Collections.sort(positions, COVERING_FIRST);
+			List<ClonedChameleonPosition> result = new ArrayList<ClonedChameleonPosition>();
+			for(ClonedChameleonPosition position: positions){
+				ClonedChameleonPosition last = result.isEmpty() ? null : result.get(result.size() - 1);
+				if(last == null || position.getOffset() >= end(last)){
+					result.add(position);
+				} else if(end(position) > end(last)){
+					ClonedChameleonPosition covering = getSmallestCoveringPos(last.getOffset(), end(position) - last.getOffset(), false);
+					if(covering == null){
+						dirtyPositions.clear();
+						setWholeDocumentDirty(true);
+						return;
 					}
+					result.set(result.size() - 1, covering);
+					merged = true;
 				}
 			}
-		}catch(Exception e){
-			e.printStackTrace();
+			positions = result;
 		}
+		dirtyPositions.clear();
+		dirtyPositions.addAll(positions);
 	}
 	
-	/*
-	 * 
-	 */
-	private void removeCoveredPositions(){
-		ClonedChameleonPosition posA, posB;
-		for(int i=0; i<dirtyPositions.size(); i++){
-			posA = dirtyPositions.get(i); 
-			for(int t=0; t<dirtyPositions.size(); t++){
-				posB = dirtyPositions.get(t);
-				if(posB.getOffset()>posA.getOffset() && 
-				   (posB.getOffset()+posB.getLength())<(posA.getOffset()+posA.getLength())){
-					dirtyPositions.remove(posB);
-				}
+	// Sorts positions by offset, and positions with the same offset by decreasing length.
+	private static final Comparator<Position> COVERING_FIRST = new Comparator<Position>() {
+		public int compare(Position first, Position second) {
+			if(first.getOffset() != second.getOffset()) {
+				return first.getOffset() < second.getOffset() ? -1 : 1;
 			}
+			return second.getLength() - first.getLength();
 		}
-	}
+	};
 	
 	/*
 	 * parses the whole document 
+	 * returns false if the document has changed during the parse
 	 */
-	private void parseWholeDocument(IDocument document) throws Exception{
+	private boolean parseWholeDocument(IDocument document) throws Exception{
 		ChameleonDocument doc = this.getDocument();
-		doc.reParse();
-		
+		Lock lock = doc.modelLock();
+		lock.lock();
+		try {
+			long version = doc.version();
+			doc.documentReparsed();
+			doc.reParse();
+			return doc.version() == version;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	
 	/**
-	 * Search in the list of cloned positions for the smallest decorator covering the dirty region
+	 * Return a clone of the smallest ALL_TAG of the document that contains the region with
+	 * the given offset and length, or null if there is none. The tags are looked up in the
+	 * interval index of the document, which is only rebuilt once after a burst of changes.
 	 * 
-	 * @param dR
-	 * @return
+	 * @param strict
+	 * 		If true, the region must lie strictly inside the tag: a change at the boundary
+	 * 		of an element can change the extent of that element.
 	 */
-	private ClonedChameleonPosition getSmallestCoveringPos(ChameleonDirtyRegion dR){
-		ClonedChameleonPosition covPos = null;
-		for(ClonedChameleonPosition pos : clonedPositions) {
-			// if dirty region is completely in position ...
-			if(dR.getOffset()>pos.offset && dR.getOffset()<=(pos.getOffset()+pos.getLength()-1) && 
-					(dR.getOffset()+dR.getLength()-1)<(pos.getOffset()+pos.getLength()-1)){
-				if(covPos == null || pos.getLength()<covPos.getLength()) {
-					covPos = pos;
+	private ClonedChameleonPosition getSmallestCoveringPos(final int offset, final int length, final boolean strict){
+		try {
+			EclipseEditorTag tag = getDocument().tagIndex(EclipseEditorTag.ALL_TAG).smallestTagAt(offset, new SafePredicate<EclipseEditorTag>() {
+				@Override
+				public boolean eval(EclipseEditorTag tag) {
+					if(strict) {
+						return tag.getOffset() < offset && end(tag) > offset + length;
+					} else {
+						return tag.getOffset() <= offset && end(tag) >= offset + length;
+					}
 				}
-			}
+			});
+			return tag == null ? null : cloneDecorator(tag);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return null;
 		}
-		
-		return covPos;
 	}
 	
-	// reconstruct positions (via dirty region)
-	private void adaptClonedPositions(ChameleonDirtyRegion dR){
-		// dirty region of type _INSERT
-		ClonedChameleonPosition eP;
-		if(dR.getType()==ChameleonDirtyRegion.INSERT){
-			for(int j=0; j<clonedPositions.size(); j++){
-				eP = clonedPositions.get(j);
-				// offset dirty region before position (adjust offset position)
-				if(dR.getOffset()<=eP.offset){
-					eP.setOffset(eP.getOffset()+dR.getLength());
-				}
-				// offset dirty region after position (do nothing)
-				else if(dR.getOffset()>(eP.getOffset()+eP.getLength()-1)){
-					// do nothing
-				}
-				// offset dirty region in position (adjust length position)
-				else{
-					eP.setLength(eP.getLength()+dR.getLength());
-				}
-			}				
+	/**
+	 * Move the given region for a change of the document that replaces the given number of
+	 * characters at the given offset by the given number of characters. Text inserted at the
+	 * end of the region extends it, so the region keeps covering the text that was typed there.
+	 */
+	private static void adaptRegion(Position region, int offset, int removed, int inserted) {
+		int start = region.getOffset();
+		int end = end(region);
+		if(start > offset + removed) {
+			start += inserted - removed;
+		} else if(start > offset) {
+			start = offset;
 		}
-		// dirty region of type _REMOVE
-		else{
-			int beginOffsetDR = dR.getOffset();
-			int endOffsetDR = dR.getOffset()+dR.getLength()-1;
-			int beginOffsetPos;
-			int endOffsetPos;
-			for(int j=0; j<clonedPositions.size(); j++){
-				eP = clonedPositions.get(j);
-				beginOffsetPos = eP.getOffset();
-				endOffsetPos = eP.getOffset()+eP.getLength()-1;
-				// dirty region completely in position (adjust length position)
-				if(beginOffsetDR >= beginOffsetPos && endOffsetDR <= endOffsetPos){
-					eP.setLength(eP.getLength()-dR.getLength());
-				}
-				// dirty region completely before position (adjust offset position)
-				else if(endOffsetDR < beginOffsetPos){
-					eP.setOffset(eP.getOffset()-dR.getLength());
-				}
-				// dirty region completely covers position (set length position zero)
-				else if(beginOffsetDR <= beginOffsetPos && endOffsetDR >= endOffsetPos){
-					eP.setLength(0);
-				}
-				// dirty region paritally covers position, only first part position (adjust offset and length position)
-				else if(beginOffsetDR < beginOffsetPos && endOffsetDR < endOffsetPos &&  endOffsetDR >= beginOffsetPos){
-					eP.setOffset(dR.getOffset());
-					eP.setLength(endOffsetPos-endOffsetDR);
-				}
-				// dirty region partially covers position, only last part position (adjust length position)
-				else if(beginOffsetDR > beginOffsetPos && endOffsetDR > endOffsetPos &&  beginOffsetDR <= endOffsetPos){
-					eP.setLength(beginOffsetDR - beginOffsetPos);
-				}
-			}
+		if(end >= offset + removed) {
+			end += inserted - removed;
+		} else if(end > offset) {
+			end = offset + inserted;
 		}
+		region.setOffset(start);
+		region.setLength(Math.max(0, end - start));
 	}
 	
-	
-	
-	
 	/**
 	 * Activates incremental reconciling of the specified dirty region.
 	 * As a dirty region might span multiple content types, the segment of the
@@ -430,36 +610,9 @@ public class ChameleonReconcilingStrategy implements IChameleonReconcilingStrate
 	 * @param dirtyRegion the document region which has been changed
 	 * @param subRegion the sub region in the dirty region which should be reconciled 
 	 */
-	public static void showSize(Namespace<?> ns) {
-		int size = ns.getNamespaceParts().size();
-		System.out.println(ns.getFullyQualifiedName()+" defined by "+size+" parts");
-		for(Namespace nested: ns.getSubNamespaces()) {
-			showSize(nested);
-		}
-	}
-	
-	public static void showTypeSize(Namespace<?> root) {
-		for(Type type:root.descendants(Type.class)) {
-		  int size = type.descendants(Element.class).size();
-		  System.out.println(type.getFullyQualifiedName()+" contains "+size+" elements");
-		}
-	}
 	public void reconcile(ChameleonDirtyRegion dirtyRegion, IRegion subRegion){
 		Language language = getDocument().compilationUnit().language();
 		if(language != null) {
-			Namespace root = language.defaultNamespace();
-//			if(DEBUG) {
-//				try {
-//					System.out.println("Number of elements in model: "+root.descendants(Element.class).size());
-//					System.out.println("Number of namespaces in model: "+root.descendants(Namespace.class).size());
-//					System.out.println("Number of namespacesparts in model: "+root.descendants(NamespacePart.class).size());
-//					System.out.println("Number of types in model: "+root.descendants(Type.class).size());
-////					showSize(root);
-////					showTypeSize(root);
-//				} catch(Exception exc) {
-//
-//				}
-//			}
 			System.out.println("reconciling dirtyregion & subregion,in chameleonReconcilingStrategy");
 			//if(_firstDR == false){
 			if(_firstDR == true){
@@ -467,30 +620,19 @@ public class ChameleonReconcilingStrategy implements IChameleonReconcilingStrate
 				System.out.println(" 1. Verwerken vervuilde tekstgebieden");
 			}
 
-			setWholeDocumentDirty(false);
 			_firstDR = false;
 			//System.out.println("   VERVUILD TEKSTGEBIED - offset: "+dirtyRegion.getOffset()+" - lengte: "+dirtyRegion.getLength()+ " - type: "+dirtyRegion.getType()/*+" tekst: "+dirtyRegion.getText()*/);
 
-			if(dirtyRegion.getType() == ChameleonDirtyRegion.INSERT){
-
-				adaptClonedPositions(dirtyRegion);
-
-			}
-
-			ClonedChameleonPosition coveringPos = getSmallestCoveringPos(dirtyRegion);
-
-			if(coveringPos != null){
-				//System.out.println("     => KLEINST GEWIJZIGDE POSITIE - offset: "+coveringPos.getOffset()+" - lengte: "+coveringPos.getLength()+" - element: "+coveringPos.getElement().getClass().getName());
-				addListDirtyPositions(coveringPos);
-			}
-			else{
-				System.out.println("     => HELE DOCUMENT VERVUILD");
-				setWholeDocumentDirty(true);
-			}
-
-			if(dirtyRegion.getType() == ChameleonDirtyRegion.REMOVE){
-				adaptClonedPositions(dirtyRegion);
+			// The regions of the earlier changes move along with this change. They are only
+			// mapped to elements when reconciling starts, so the positions of the document
+			// are not copied for every change.
+			int offset = dirtyRegion.getOffset();
+			int removed = dirtyRegion.getRemovedLength();
+			int inserted = dirtyRegion.getInsertedLength();
+			for(Position region: _dirtyRegions) {
+				adaptRegion(region, offset, removed, inserted);
 			}
+			_dirtyRegions.add(new Position(offset, inserted));
 
 			//System.out.println("Klaar met reconcilen");
 
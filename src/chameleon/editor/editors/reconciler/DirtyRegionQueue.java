@@ -12,7 +12,9 @@ import java.util.List;
  * 
  * Queue used by {@link org.eclipse.jface.text.reconciler.Reconciler} to manage
  * dirty regions. When a dirty region is inserted into the queue, the queue tries
- * to fold it into the neighboring dirty region.
+ * to fold it into the neighboring dirty region. Any change that touches the text of the
+ * previous change is folded into it, so a burst of typing, including corrections with
+ * backspace, ends up in the queue as a single insert, remove or replace.
  *
  * @see org.eclipse.jface.text.reconciler.Reconciler
  * @see org.eclipse.jface.text.reconciler.DirtyRegion
@@ -30,28 +32,18 @@ class DirtyRegionQueue {
 	}
 	
 	/**
-	 * Adds a dirty region to the end of the dirty-region queue.
+	 * Adds a dirty region to the end of the dirty-region queue. The caller must hold
+	 * the lock on this queue, since the dirty region can be merged into the last one.
 	 *
 	 * @param dr the dirty region to add
 	 */
 	public void addDirtyRegion(ChameleonDirtyRegion dr) {
-		// If the dirty region being added is directly after the last dirty
-		// region on the queue then merge the two dirty regions together.
+		// If the dirty region being added touches the text that results from the last
+		// dirty region on the queue then merge the two dirty regions together.
 		ChameleonDirtyRegion lastDR= getLastDirtyRegion();
 		boolean wasMerged= false;
 		if (lastDR != null)
-			if (lastDR.getType() == dr.getType())
-				if (lastDR.getType() == ChameleonDirtyRegion.INSERT) {
-					if (lastDR.getOffset() + lastDR.getLength() == dr.getOffset()) {
-						lastDR.mergeWith(dr);
-						wasMerged= true;
-					}
-				} else if (lastDR.getType() == ChameleonDirtyRegion.REMOVE) {
-					if (dr.getOffset() + dr.getLength() == lastDR.getOffset()) {
-						lastDR.mergeWith(dr);
-						wasMerged= true;
-					}
-				}
+			wasMerged= lastDR.mergeWith(dr);
 
 		if (!wasMerged)
 			// Don't merge- just add the new one onto the queue.
@@ -1,5 +1,6 @@
 package chameleon.editor.editors.reconciler;
 
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.IRegion;
 
@@ -80,6 +81,9 @@ public interface IChameleonReconcilingStrategy {
 	// start reconciling
 	void startReconciling();
 	
+	// the monitor that is canceled when the document changes while it is being reconciled
+	void setProgressMonitor(IProgressMonitor monitor);
+	
 	/**
 	 * 
 	 * @return the currently used Document
@@ -0,0 +1,185 @@
+package chameleon.editor.editors.reconciler;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Runs the reconcilers of all open Chameleon editors on a small, bounded pool of threads,
+ * instead of giving every reconciler a thread of its own that wakes up periodically.
+ *
+ * A task is scheduled with a delay. Scheduling a task that is still waiting replaces its
+ * delay, so a task that keeps being rescheduled while the user types only runs once the
+ * changes stop. The tasks for the same document never run concurrently, and run in the
+ * order in which they became due. Among the tasks that are due, the tasks of the document
+ * of the focused editor run first.
+ *
+ * When no task is waiting, the threads of the scheduler block until one is scheduled.
+ */
+public class ReconcileScheduler {
+
+	private static ReconcileScheduler _default;
+
+	/**
+	 * Return the scheduler that is shared by all Chameleon editors.
+	 */
+	public static synchronized ReconcileScheduler getDefault() {
+		if(_default == null) {
+			_default = new ReconcileScheduler(Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors() - 1)));
+		}
+		return _default;
+	}
+
+	private static final int MAX_THREADS = 2;
+
+	/**
+	 * Create a scheduler that runs at most the given number of tasks at the same time.
+	 */
+	public ReconcileScheduler(int nbThreads) {
+		_nbThreads = nbThreads;
+	}
+
+	private int _nbThreads;
+
+	private List<Worker> _workers = new ArrayList<Worker>();
+
+	// The tasks that wait to be run, in the order in which they were scheduled.
+	private List<Task> _waiting = new ArrayList<Task>();
+
+	// The keys of the tasks that are running.
+	private Set<Object> _running = new HashSet<Object>();
+
+	private WeakReference<Object> _focused = new WeakReference<Object>(null);
+
+	/**
+	 * A unit of work for the scheduler.
+	 */
+	public static abstract class Task {
+
+		/**
+		 * The tasks with the same key are run one after the other. By default, every task has a key of its own.
+		 */
+		protected Object key() {
+			return this;
+		}
+
+		/**
+		 * Do the work of this task.
+		 */
+		protected abstract void run();
+
+		// The time in milliseconds at which this task is due. Only meaningful while it is waiting.
+		private long _due;
+
+		private boolean _waiting;
+
+		private Object _runningKey;
+	}
+
+	/**
+	 * Run the given task once the given number of milliseconds has passed. If the task is
+	 * already waiting, it waits for the given delay from now instead. If the task is running,
+	 * it is run again afterwards.
+	 */
+	public synchronized void schedule(Task task, long delay) {
+		task._due = System.currentTimeMillis() + Math.max(0, delay);
+		if(! task._waiting) {
+			task._waiting = true;
+			_waiting.add(task);
+		}
+		if(_workers.size() < _nbThreads && _workers.size() < _waiting.size() + _running.size()) {
+			Worker worker = new Worker();
+			_workers.add(worker);
+			worker.start();
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Remove the given task if it is waiting. A task that is running is not interrupted.
+	 */
+	public synchronized void cancel(Task task) {
+		if(task._waiting) {
+			task._waiting = false;
+			_waiting.remove(task);
+		}
+	}
+
+	/**
+	 * Give priority to the tasks with the given key, which is the document of the focused editor.
+	 */
+	public synchronized void setFocused(Object key) {
+		_focused = new WeakReference<Object>(key);
+	}
+
+	/**
+	 * Wait until a task can be run, and mark it as running.
+	 */
+	private synchronized Task next() throws InterruptedException {
+		while(true) {
+			long now = System.currentTimeMillis();
+			Object focused = _focused.get();
+			Task result = null;
+			long wait = 0;
+			for(Task task: _waiting) {
+				Object key = task.key();
+				if(_running.contains(key)) {
+					continue;
+				}
+				if(task._due <= now) {
+					if(result == null || (key == focused && result.key() != focused)) {
+						result = task;
+					}
+				} else if(wait == 0 || task._due - now < wait) {
+					wait = task._due - now;
+				}
+			}
+			if(result != null) {
+				_waiting.remove(result);
+				result._waiting = false;
+				result._runningKey = result.key();
+				_running.add(result._runningKey);
+				return result;
+			}
+			// Without a waiting task, block until a task is scheduled.
+			wait(wait);
+		}
+	}
+
+	private synchronized void finished(Task task) {
+		_running.remove(task._runningKey);
+		task._runningKey = null;
+		notifyAll();
+	}
+
+	private class Worker extends Thread {
+
+		public Worker() {
+			super("Chameleon reconciler");
+			setPriority(Thread.MIN_PRIORITY);
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while(true) {
+				Task task;
+				try {
+					task = next();
+				} catch (InterruptedException e) {
+					return;
+				}
+				try {
+					task.run();
+				} catch (Throwable e) {
+					e.printStackTrace();
+				} finally {
+					finished(task);
+				}
+			}
+		}
+	}
+
+}
@@ -2,14 +2,19 @@ package chameleon.editor.presentation;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.Vector;
 
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.BadPositionCategoryException;
+import org.eclipse.jface.text.IRegion;
 import org.eclipse.jface.text.Position;
 import org.eclipse.jface.text.TextPresentation;
 import org.eclipse.swt.custom.StyleRange;
 
 import chameleon.core.element.Element;
+import chameleon.editor.connector.EclipseEditorExtension;
 import chameleon.editor.connector.EclipseEditorTag;
 import chameleon.editor.editors.ChameleonDocument;
 
@@ -65,12 +70,25 @@ public class PresentationManager {
 	 * 
 	 */
 	public TextPresentation createTextPresentation() throws NullPointerException{
+		return createTextPresentation(null);
+	}
+
+	/**
+	 * Create the text presentation of the whole document. Null is returned as soon as the
+	 * given monitor is canceled, since the presentation is then computed for text that has
+	 * changed again.
+	 */
+	public TextPresentation createTextPresentation(IProgressMonitor monitor) throws NullPointerException{
 		final TextPresentation pres = new TextPresentation();
+		addKeywordStyles(pres, 0, document.getLength());
 		try {
-			Position[] poss = document.getPositions(EclipseEditorTag.CHAMELEON_CATEGORY);
+			List<EclipseEditorTag> poss = document.editorTags();
 			
-			for (int i = 0; i < poss.length; i++) {
-				EclipseEditorTag dec = (EclipseEditorTag) poss[i];
+			for (int i = 0; i < poss.size(); i++) {
+				if(monitor != null && i % CANCEL_CHECK_INTERVAL == 0 && monitor.isCanceled()) {
+					return null;
+				}
+				EclipseEditorTag dec = poss.get(i);
 				try {
 					// FIXME
 					StyleRange sr = getPresentationModel().map(dec.getOffset(), dec.getLength(), dec.getElement().getClass().getName().toLowerCase(), dec
@@ -84,9 +102,6 @@ public class PresentationManager {
 				}
 				
 			}
-		} catch (BadPositionCategoryException e) {
-			e.printStackTrace();
-			
 		} catch (ClassCastException e) {
 			e.printStackTrace();
 			
@@ -94,6 +109,42 @@ public class PresentationManager {
 		return pres;
 	}	
 
+	// The number of editor tags that are presented between two checks of the progress monitor.
+	private static final int CANCEL_CHECK_INTERVAL = 256;
+
+	/**
+	 * The name of the element type for which the style of keywords is looked up.
+	 */
+	public static final String KEYWORD_ELEMENT = "keyword";
+	
+	/**
+	 * Add the styles of the keywords of the language in the given region. The keywords are
+	 * found in the token index of the document, so they do not depend on the model and are
+	 * highlighted even if the document does not parse. The styles of the editor tags are
+	 * merged on top of them.
+	 */
+	private void addKeywordStyles(TextPresentation pres, int offset, int length) {
+		EclipseEditorExtension extension = document.language().connector(EclipseEditorExtension.class);
+		Set<String> keywords = (extension == null ? null : extension.keywords());
+		if(keywords == null || keywords.isEmpty()) {
+			return;
+		}
+		List<IRegion> words = new ArrayList<IRegion>();
+		document.tokenIndex().words(offset, length, words);
+		for(IRegion word: words) {
+			try {
+				if(keywords.contains(document.get(word.getOffset(), word.getLength()))) {
+					StyleRange sr = getPresentationModel().map(word.getOffset(), word.getLength(), KEYWORD_ELEMENT, EclipseEditorTag.KEYWORD_TAG);
+					if(sr != null) {
+						pres.mergeStyleRange(sr);
+					}
+				}
+			} catch (BadLocationException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
 	/**
 	 * checks whether the given element is foldable
 	 * @param decorator 
@@ -179,19 +230,16 @@ public class PresentationManager {
 	public TextPresentation createTextPresentation(TextPresentation pres, int offset, int length) {
 		try {
 			System.out.println("doing presentation on " + document);
-			Position[] poss = document.getPositions(EclipseEditorTag.CHAMELEON_CATEGORY);
+			addKeywordStyles(pres, offset, length);
+			List<EclipseEditorTag> poss = document.editorTags();
 
-			for (int i = 0; i < poss.length; i++) {
-				if (poss[i].getOffset()+poss[i].getLength() > offset && poss[i].getOffset() < offset+length){
-					EclipseEditorTag dec = (EclipseEditorTag) poss[i];
+			for (int i = 0; i < poss.size(); i++) {
+				if (poss.get(i).getOffset()+poss.get(i).getLength() > offset && poss.get(i).getOffset() < offset+length){
+					EclipseEditorTag dec = poss.get(i);
 					StyleRange sr = getPresentationModel().map(dec.getOffset(),dec.getLength(),dec.getElement().getClass().getName().toLowerCase(), dec.getName());
 					if (sr!=null) pres.mergeStyleRange(sr);
 				}
 			}
-		} catch (BadPositionCategoryException e)
-		{
-			System.out.println(e);
-			
 		} catch (ClassCastException e)
 		{
 			System.out.println(e);
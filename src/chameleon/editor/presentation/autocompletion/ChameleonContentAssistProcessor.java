@@ -62,7 +62,7 @@ public class ChameleonContentAssistProcessor implements IContentAssistProcessor
 					
 					
 					// search for elements:
-					Language language = chamDoc.getProjectNature().getModel().language();
+					Language language = chamDoc.getProjectNature().language();
 //					SafePredicate<Type> typePredicate = el.getTypePredicate();
 					// FIXME
 					Set<Element> foundElements = new HashSet<Element>();
@@ -98,7 +98,7 @@ public class ChameleonContentAssistProcessor implements IContentAssistProcessor
 			EclipseEditorTag dec = chamDoc.getSmallestEditorTagAtOffset(offset);
 			if(dec!=null){
 				Element element = dec.getElement();
-				Language language = ((ChameleonDocument)viewer.getDocument()).getProjectNature().getModel().language();
+				Language language = ((ChameleonDocument)viewer.getDocument()).getProjectNature().language();
 				EclipseEditorExtension ext = language.connector(EclipseEditorExtension.class);
 				String elementLabel = ext.getLabel(element);
 				if(element instanceof MethodInvocation){
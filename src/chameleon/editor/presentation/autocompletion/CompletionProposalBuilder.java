@@ -72,7 +72,7 @@ public class CompletionProposalBuilder {
 	 */
 	public static ICompletionProposal buildTemplateProposal(RegularMethod method, ChameleonDocument document, int offset){
 		// get the pattern from the ChameleonEditorExtention (parameters are template regions)
-		EclipseEditorExtension ext = document.getProjectNature().getModel().language().connector(EclipseEditorExtension.class);
+		EclipseEditorExtension ext = document.getProjectNature().language().connector(EclipseEditorExtension.class);
 		String patternString = ext.getMethodTemplatePattern(method);
 		// use ChameleonLabelProvider for label and icon:
 		ChameleonLabelProvider labelProvider = new ChameleonLabelProvider(method.language(), true, true, false);
@@ -82,7 +82,7 @@ public abstract class OpenCallHierarchyAction extends Action {
 							}
 						};
 						Collection<EclipseEditorTag> result = new TreeSet<EclipseEditorTag>(EclipseEditorTag.lengthComparator);
-						doc.getEditorTagsWithPredicate(predicate, result);
+						doc.getEditorTagsAtOffset(offset, predicate, result);
 						if(result.size()>0){
 							Method currentMethod = (Method)result.iterator().next().getElement();
 							return currentMethod;
@@ -115,7 +115,12 @@ public class ChameleonFormatterStrategy implements IFormattingStrategy {
 	 */
 	private int getNbIndentationStepsForLine(ChameleonDocument document, int lineNb){
 		SortedSet<EclipseEditorTag> editorTags = new TreeSet<EclipseEditorTag>(EclipseEditorTag.lengthComparator);
-		document.getEditorTagsWithPredicate( new AllEditorTagSurroundingLinePredicate(document, lineNb) , editorTags);
+		try {
+			// a tag that surrounds the line also surrounds the start of the line
+			document.getEditorTagsAtOffset(document.getLineOffset(lineNb), new AllEditorTagSurroundingLinePredicate(document, lineNb) , editorTags);
+		} catch (BadLocationException e) {
+			return 0;
+		}
 		//document.getEditorTagsWithPredicate( new EditorTagAtLinePredicate(document, lineNb) , editorTags);
 		if(editorTags.size()==0)
 			return 0;
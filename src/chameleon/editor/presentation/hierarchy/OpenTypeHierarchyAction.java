@@ -148,7 +148,7 @@ public class OpenTypeHierarchyAction extends Action implements IDoubleClickListe
 							}
 						};
 						Collection<EclipseEditorTag> tags = new TreeSet<EclipseEditorTag>(EclipseEditorTag.lengthComparator);
-						doc.getEditorTagsWithPredicate(predicate, tags);
+						doc.getEditorTagsAtOffset(offset, predicate, tags);
 						if(tags != null && tags.size()>0){
 							for(EclipseEditorTag tag : tags ){
 								if(tag!=null && tag.getElement() instanceof Type){
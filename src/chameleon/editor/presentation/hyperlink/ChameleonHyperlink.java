@@ -51,7 +51,7 @@ public class ChameleonHyperlink implements IHyperlink {
 	}
 	
 	public Declaration getDeclarator() throws ModelException {
-		return getReference().getDeclarator();
+		return _document.getProjectNature().declarator(getReference());
 	}
 	
 	public String getTypeLabel() {
@@ -1,16 +1,33 @@
 package chameleon.editor.project;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.eclipse.core.resources.ICommand;
+import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IFolder;
 import org.eclipse.core.resources.IProject;
@@ -24,21 +41,39 @@ import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.IDocument;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.ui.IEditorInput;
+import org.eclipse.ui.IEditorReference;
+import org.eclipse.ui.IFileEditorInput;
+import org.eclipse.ui.IWorkbenchPage;
+import org.eclipse.ui.IWorkbenchWindow;
+import org.eclipse.ui.PartInitException;
+import org.eclipse.ui.PlatformUI;
 
+import chameleon.core.Config;
 import chameleon.core.compilationunit.CompilationUnit;
+import chameleon.core.declaration.Declaration;
 import chameleon.core.element.Element;
 import chameleon.core.language.Language;
+import chameleon.core.lookup.LookupException;
 import chameleon.core.namespace.Namespace;
+import chameleon.core.namespacepart.NamespacePart;
+import chameleon.core.reference.CrossReference;
 import chameleon.editor.ChameleonEditorPlugin;
 import chameleon.editor.LanguageMgt;
 import chameleon.editor.builder.ChameleonBuilder;
 import chameleon.editor.connector.EclipseEditorInputProcessor;
+import chameleon.editor.connector.EclipseEditorTag;
 import chameleon.editor.connector.EclipseSourceManager;
 import chameleon.editor.editors.ChameleonDocument;
 import chameleon.editor.editors.ChameleonEditor;
+import chameleon.editor.editors.DocumentSnapshot;
+import chameleon.editor.editors.preferences.ChameleonEditorPreferencePage;
 import chameleon.editor.presentation.PresentationModel;
 import chameleon.exception.ChameleonProgrammerException;
 import chameleon.input.InputProcessor;
@@ -57,7 +92,9 @@ import chameleon.input.SourceManager;
  */
 public class ChameleonProjectNature implements IProjectNature {
 	public ChameleonProjectNature() {
-		_documents=new ArrayList<ChameleonDocument>();
+		_documents=new DocumentRegistry();
+		_dependencyTracker = new DependencyTracker(this);
+		_verificationCache = new VerificationCache();
 	}
 	
 	//the project this natures resides
@@ -68,11 +105,113 @@ public class ChameleonProjectNature implements IProjectNature {
 	
 	public static final String CHAMELEON_PROJECT_FILE_EXTENSION = "CHAMPROJECT";
 
-	//The elements in the model of this nature
-	private ArrayList<ChameleonDocument> _documents;
+	//The documents in the model of this nature
+	private DocumentRegistry _documents;
+	
+	private DependencyTracker _dependencyTracker;
+	
+	public DependencyTracker dependencyTracker() {
+		return _dependencyTracker;
+	}
+	
+	private VerificationCache _verificationCache;
+	
+	public VerificationCache verificationCache() {
+		return _verificationCache;
+	}
+	
+	private final ReentrantLock _modelLock = new ReentrantLock();
+	
+	/**
+	 * Return the lock that is held while compilation units are added to, replaced in, or
+	 * removed from the model of this project. All compilation units share the default namespace
+	 * of the language, so the documents that are loaded in the background and the documents
+	 * that are reconciled in the editors must not change the model at the same time.
+	 * 
+	 * The lock is held for a single parse. A thread that holds the model lock of a document
+	 * must acquire that lock first.
+	 */
+	public Lock modelLock() {
+		return _modelLock;
+	}
 	
 	public static final String NATURE = ChameleonEditorPlugin.PLUGIN_ID+".ChameleonNature";
 	
+	/**
+	 * Determines whether the files of a project are read by a pool of worker threads
+	 * when the project is loaded.
+	 */
+	public static boolean PARALLEL_LOADING = ChameleonEditorPreferencePage.getBoolean(ChameleonEditorPreferencePage.PARALLEL_LOADING, true);
+	
+	/**
+	 * Determines whether the files of a project are only registered as stubs when the project
+	 * is loaded. A stub is parsed when an editor is opened for it, or when the builder or
+	 * a lookup in the model needs it.
+	 */
+	public static boolean LAZY_LOADING = ChameleonEditorPreferencePage.getBoolean(ChameleonEditorPreferencePage.LAZY_LOADING, false);
+	
+	/**
+	 * Determines whether the text of documents that are not open in an editor is released
+	 * after they have been parsed.
+	 */
+	public static boolean COMPACT_CLOSED_DOCUMENTS = ChameleonEditorPreferencePage.getBoolean(ChameleonEditorPreferencePage.COMPACT_CLOSED_DOCUMENTS, true);
+	
+	/**
+	 * Determines whether the digests and the declared names of the files of a project are kept
+	 * on disk, so the files that have not changed since the previous session are only registered
+	 * as stubs when the project is loaded.
+	 * 
+	 * @see ProjectSnapshot
+	 */
+	public static boolean SNAPSHOT_LOADING = ChameleonEditorPreferencePage.getBoolean(ChameleonEditorPreferencePage.SNAPSHOT_LOADING, true);
+	
+	/**
+	 * The name of the file in the working location of the project in which the snapshot is stored.
+	 */
+	public static final String SNAPSHOT_FILE = "snapshot";
+	
+	private ProjectSnapshot _snapshot;
+	
+	/**
+	 * Return the snapshot of the files of this project. Null is returned if snapshots are
+	 * disabled, or if the project has no working location.
+	 */
+	public synchronized ProjectSnapshot snapshot() {
+		if(! SNAPSHOT_LOADING || getProject() == null) {
+			return null;
+		}
+		if(_snapshot == null) {
+			IPath location = getProject().getWorkingLocation(ChameleonEditorPlugin.PLUGIN_ID);
+			if(location != null) {
+				_snapshot = new ProjectSnapshot(location.append(SNAPSHOT_FILE).toFile());
+				_snapshot.load();
+			}
+		}
+		return _snapshot;
+	}
+	
+	/**
+	 * Store the digest of the given text, from which the compilation unit of the given document
+	 * has just been parsed, and the names that it declares in the snapshot of this project.
+	 * If the digest is null, the document could not be parsed, and it is removed from the snapshot.
+	 */
+	protected void record(ChameleonDocument document, String digest, String text) {
+		ProjectSnapshot snapshot = snapshot();
+		if(snapshot != null) {
+			snapshot.record(document.path(), digest, digest == null ? null : ProjectSnapshot.declaredNames(document.compilationUnit(), text));
+		}
+	}
+	
+	/**
+	 * Write the snapshot of this project to disk if it has changed.
+	 */
+	public void saveSnapshot() {
+		ProjectSnapshot snapshot = snapshot();
+		if(snapshot != null) {
+			snapshot.save();
+		}
+	}
+	
 	private PresentationModel _presentationModel;
 	
 	public PresentationModel presentationModel() {
@@ -93,7 +232,17 @@ public class ChameleonProjectNature implements IProjectNature {
 		}
 		this._language = language;
 		language.setConnector(SourceManager.class, new EclipseSourceManager(this));
-		language.addProcessor(InputProcessor.class, new EclipseEditorInputProcessor(this));
+		_inputProcessor = new EclipseEditorInputProcessor(this);
+		language.addProcessor(InputProcessor.class, _inputProcessor);
+	}
+	
+	private EclipseEditorInputProcessor _inputProcessor;
+	
+	/**
+	 * Return the input processor that creates the editor tags of the documents of this project.
+	 */
+	public EclipseEditorInputProcessor inputProcessor() {
+		return _inputProcessor;
 	}
 	
 	/**
@@ -153,7 +302,7 @@ public class ChameleonProjectNature implements IProjectNature {
 
 	/**
 	 * A new project for this nature is set.
-	 * All documents (if any) are loaded and the according model is built.
+	 * All documents (if any) are loaded and the according model is built by a background job.
 	 */
 	public void setProject(IProject project) {
 		if(project != _project) {
@@ -166,7 +315,7 @@ public class ChameleonProjectNature implements IProjectNature {
 					f.close();
 					Language language = LanguageMgt.getInstance().createLanguage(lang);
 					init(language);
-					loadDocuments();
+					scheduleLoadDocuments();
 					_projectListener = new ProjectChangeListener(this);
 					getProject().getWorkspace().addResourceChangeListener(_projectListener, IResourceChangeEvent.POST_CHANGE);
 					//			updateAllModels();
@@ -182,6 +331,12 @@ public class ChameleonProjectNature implements IProjectNature {
 	
 	private IResourceChangeListener _projectListener;
 	
+	/**
+	 * Collects the changes to the source files of the project that are reported during a
+	 * resource change notification. The changes are processed afterwards by a single background
+	 * job, so that the notification does not block the workspace and a change to many files
+	 * results in a single invalidation of the project cache.
+	 */
 	public class ProjectChangeListener implements IResourceChangeListener {
 		
 		public ProjectChangeListener(ChameleonProjectNature nature) {
@@ -196,70 +351,29 @@ public class ChameleonProjectNature implements IProjectNature {
 
 		public void resourceChanged(IResourceChangeEvent event) {
 			IResourceDelta delta = event.getDelta();
+			if(delta == null) {
+				return;
+			}
 			try {
 				//nature().getProject().build(IncrementalProjectBuilder.FULL_BUILD, new NullProgressMonitor());
-				delta.accept( new ChameleonResourceDeltaVisitor(nature()) {
+				delta.accept( new ChameleonResourceDeltaFileVisitor(nature()) {
 
 					@Override
 					public void handleAdded(IResourceDelta delta) throws CoreException {
-						System.out.println("### ADDING FILE TO MODEL ###");
-						IResource resource = delta.getResource();
-						if(resource instanceof IFile) {
-							nature().addResourceToModel(resource);
-							nature().flushProjectCache();
-						}
+						enqueue((IFile)delta.getResource(), IResourceDelta.ADDED);
 					}
 
 					@Override
 					public void handleChanged(IResourceDelta delta) throws CoreException {
-						boolean update = true;
-						Collection<ChameleonEditor> editors = ChameleonEditor.getActiveChameleonEditors();
-						ChameleonDocument doc = documentOf(delta);
-						if(doc != null) {
-							for(ChameleonEditor editor: editors) {
-								if(editor.getDocument() == doc) {
-									update = false;
-									break;
-								}
-							}
-							if(update) {
-								System.out.println("### UPDATING FILE IN MODEL ###");
-								//							xx must refresh the content of the document.
-								IResource resource = delta.getResource();
-								if(resource instanceof IFile) {
-									try {
-										IFile youfile = (IFile) resource;
-										IPath location = youfile.getLocation();
-										File file = null;
-										if (location != null) {
-											file = location.toFile();
-										}
-										;
-										byte[] bytes = new byte[(int) file.length()];
-										BufferedInputStream stream = new BufferedInputStream(new FileInputStream(file));
-										stream.read(bytes);
-										doc.set(new String(bytes));
-										updateModel(doc);
-										nature().flushProjectCache();
-									} catch (IOException e) {
-										e.printStackTrace();
-									}
-								}
-							} else {
-								System.out.println("### FOUND EDITOR FOR FILE ###"+ delta.getResource());
-							}
+						// Marker and property changes do not affect the model.
+						if((delta.getFlags() & (IResourceDelta.CONTENT | IResourceDelta.REPLACED | IResourceDelta.ENCODING)) != 0) {
+							enqueue((IFile)delta.getResource(), IResourceDelta.CHANGED);
 						}
 					}
 
 					@Override
 					public void handleRemoved(IResourceDelta delta) throws CoreException {
-						System.out.println("### REMOVING FILE FROM MODEL ###");
-						ChameleonDocument doc = documentOf(delta);
-						if(doc != null) {
-//							doc.compilationUnit().disconnect();
-							nature().removeDocument(doc);
-							nature().flushProjectCache();
-						}
+						enqueue((IFile)delta.getResource(), IResourceDelta.REMOVED);
 					}
 					
 				}
@@ -267,8 +381,146 @@ public class ChameleonProjectNature implements IProjectNature {
 			} catch (CoreException e) {
 				e.printStackTrace();
 			}
+			scheduleResourceChanges();
+		}
+	}
+	
+	/**
+	 * The changes to files that have not been processed yet, mapped to the kind
+	 * of the last delta for each file. Guarded by itself.
+	 */
+	private LinkedHashMap<IFile, Integer> _pendingChanges = new LinkedHashMap<IFile, Integer>();
+	
+	/**
+	 * The delay in milliseconds between the first pending change and the processing
+	 * of the pending changes. Changes that arrive in the meantime are processed in the same batch.
+	 */
+	public static final long RESOURCE_CHANGE_DELAY = 200;
+	
+	private Job _resourceChangeJob;
+	
+	private void enqueue(IFile file, int kind) {
+		synchronized(_pendingChanges) {
+			// Keep the order of first occurrence, but the kind of the last delta.
+			_pendingChanges.put(file, kind);
+		}
+	}
+	
+	private synchronized void scheduleResourceChanges() {
+		synchronized(_pendingChanges) {
+			if(_pendingChanges.isEmpty()) {
+				return;
+			}
+		}
+		if(_resourceChangeJob == null) {
+			_resourceChangeJob = new Job("Updating Chameleon model") {
+				@Override
+				protected IStatus run(IProgressMonitor monitor) {
+					return processResourceChanges(monitor);
+				}
+			};
+			_resourceChangeJob.setRule(getProject());
+		}
+		// If the job is already waiting, this merely postpones it. If it is running, it will run
+		// again afterwards and pick up the changes that arrived in the meantime.
+		_resourceChangeJob.schedule(RESOURCE_CHANGE_DELAY);
+	}
+	
+	/**
+	 * Process the pending changes to the files of the project. If the monitor is canceled,
+	 * the changes that have not been processed remain pending and are processed together
+	 * with the next batch of changes.
+	 */
+	protected IStatus processResourceChanges(IProgressMonitor monitor) {
+		Map<IFile, Integer> batch;
+		synchronized(_pendingChanges) {
+			batch = new LinkedHashMap<IFile, Integer>(_pendingChanges);
+			_pendingChanges.clear();
+		}
+		// This runs in a job, so the editors are looked up in the UI thread.
+		Collection<ChameleonDocument> openDocuments = openDocuments();
+		monitor.beginTask("Updating Chameleon model", batch.size() + 1);
+		_batchThread = Thread.currentThread();
+		_flushPending = false;
+		try {
+			Iterator<Map.Entry<IFile, Integer>> entries = batch.entrySet().iterator();
+			while(entries.hasNext()) {
+				if(monitor.isCanceled()) {
+					requeue(batch);
+					return Status.CANCEL_STATUS;
+				}
+				Map.Entry<IFile, Integer> entry = entries.next();
+				IFile file = entry.getKey();
+				monitor.subTask(file.getFullPath().toString());
+				processResourceChange(file, entry.getValue().intValue(), openDocuments);
+				entries.remove();
+				monitor.worked(1);
+			}
+		} finally {
+			_batchThread = null;
+			if(_flushPending) {
+				flushProjectCache();
+			}
+			saveSnapshot();
+			monitor.done();
+		}
+		return Status.OK_STATUS;
+	}
+	
+	private void requeue(Map<IFile, Integer> unprocessed) {
+		synchronized(_pendingChanges) {
+			Map<IFile, Integer> later = new LinkedHashMap<IFile, Integer>(_pendingChanges);
+			_pendingChanges.clear();
+			_pendingChanges.putAll(unprocessed);
+			_pendingChanges.putAll(later);
 		}
 	}
+	
+	private void processResourceChange(IFile file, int kind, Collection<ChameleonDocument> openDocuments) {
+		ChameleonDocument doc = documentOfPath(file.getFullPath());
+		if(kind == IResourceDelta.REMOVED) {
+			if(doc != null) {
+				System.out.println("### REMOVING FILE FROM MODEL ###");
+				removeDocument(doc);
+				flushProjectCache();
+			}
+		} else if(doc == null) {
+			if(file.exists() && isSourceFile(file)) {
+				System.out.println("### ADDING FILE TO MODEL ###");
+				addResourceToModel(file);
+				flushProjectCache();
+			}
+		} else if(openDocuments.contains(doc)) {
+			System.out.println("### FOUND EDITOR FOR FILE ###"+ file);
+		} else if(doc.isStub()) {
+			// The file of a stub is read when the stub is parsed, but what it declares is no longer known.
+			ProjectSnapshot snapshot = snapshot();
+			if(snapshot != null) {
+				snapshot.forget(doc.path());
+			}
+		} else {
+			System.out.println("### UPDATING FILE IN MODEL ###");
+			try {
+				String text = SourceFileReader.read(file);
+				// Touching or saving a file without changing its text does not change the model.
+				if(! isParsed(doc, text)) {
+					doc.replaceText(text);
+					updateModel(doc);
+				}
+				compact(doc, openDocuments);
+			} catch (IOException e) {
+				e.printStackTrace();
+			} catch (CoreException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	// The thread that is loading the project or processing a batch of resource changes. Flushes
+	// of the project cache requested by that thread are postponed until the end of the batch.
+	private volatile Thread _batchThread;
+	
+	private boolean _flushPending;
 
 	/*
 	 *  (non-Javadoc)
@@ -287,20 +539,9 @@ public class ChameleonProjectNature implements IProjectNature {
 	public void updateAllModels() {
 
 			try {
-				for (ChameleonDocument doc : _documents) {
+				for (ChameleonDocument doc : _documents.documents()) {
 					updateModel(doc);
 				}
-//				if (Config.DEBUG) {
-//					// DEBUG: This prints the size of the entire model so memory problems
-//					// can be detected. If there is a problem,
-//					// the number will keep getting bigger while the size of the source
-//					// files remains constant.
-//					ChameleonReconcilingStrategy.showSize(language().defaultNamespace());
-//					for (Iterator<ChameleonDocument> iter = _documents.iterator(); iter.hasNext();) {
-//						ChameleonDocument element = iter.next();
-//						System.out.println(element);
-//					}
-//				}
 			} catch (Exception exc) {
 				exc.printStackTrace();
 
@@ -328,35 +569,581 @@ public class ChameleonProjectNature implements IProjectNature {
 //			e.printStackTrace();
 //		}
 		if(doc != null) {
-			doc.dumpPositions();
+			_modelLock.lock();
+			try {
+				doc.retirePositions();
+				doc.setParsedDigest(null);
+				if(doc.isStub()) {
+					doc.clearStub();
+					// Only registered stubs are counted.
+					if(_documents.documentOfPath(doc.path()) == doc) {
+						_nbStubs.decrementAndGet();
+					}
+				}
+				long start = System.nanoTime();
+				try {
+					String text = parseCurrentText(doc);
+					doc.setParsedDigest(digest(text));
+					record(doc, doc.parsedDigest(), text);
+					_dependencyTracker.reset(doc.compilationUnit());
+					_dependencyTracker.updateFingerprint(doc.compilationUnit());
+				} catch (ParseException e) {
+					// FIXME Can we ignore this exception? Normally, the parse error markers should have been set.
+					e.printStackTrace();
+					record(doc, null, null);
+				} finally {
+					doc.setParseTime(System.nanoTime() - start);
+					flushProjectCache();
+				}
+			} finally {
+				_modelLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Parse the text of the given document into its compilation unit. The text is parsed while
+	 * the user may keep typing. If the document has changed when the parse is done, the tags
+	 * of the parse no longer match its text. They are then discarded, and the current text
+	 * is parsed again.
+	 * 
+	 * @return The text that has been parsed.
+	 */
+	private String parseCurrentText(ChameleonDocument doc) throws ParseException {
+		while(true) {
+			DocumentSnapshot snapshot = doc.snapshot();
+			ParseException error = null;
+			boolean published;
+			_inputProcessor.startSession(doc, snapshot.version());
 			try {
-				modelFactory().addToModel(doc.get(), doc.compilationUnit());
+				modelFactory().addToModel(snapshot.text(), doc.compilationUnit());
 			} catch (ParseException e) {
-				// FIXME Can we ignore this exception? Normally, the parse error markers should have been set.
-				e.printStackTrace();
+				error = e;
 			} finally {
-				flushProjectCache();
+				published = _inputProcessor.finishSession();
+			}
+			if(published) {
+				if(error != null) {
+					throw error;
+				}
+				return snapshot.text();
+			}
+		}
+	}
+
+	/**
+	 * Check whether the compilation unit of the given document was parsed successfully
+	 * from the given text. In that case, parsing the text again would not change the model.
+	 */
+	public boolean isParsed(ChameleonDocument doc, String text) {
+		String parsed = doc.parsedDigest();
+		return parsed != null && parsed.equals(digest(text));
+	}
+
+	/**
+	 * Return an MD5 digest of the given text. Null is returned if no
+	 * digest can be computed.
+	 */
+	public static String digest(String text) {
+		try {
+			byte[] hash = MessageDigest.getInstance("MD5").digest(text.getBytes("UTF-8"));
+			StringBuffer result = new StringBuffer();
+			for(int i = 0; i < hash.length; i++) {
+				result.append(Integer.toHexString((hash[i] & 0xff) | 0x100).substring(1));
 			}
+			return result.toString();
+		} catch (NoSuchAlgorithmException e) {
+			e.printStackTrace();
+			return null;
+		} catch (UnsupportedEncodingException e) {
+			e.printStackTrace();
+			return null;
 		}
 	}
 
+	/**
+	 * Load the documents of the project in a background job. The job uses the project as its
+	 * scheduling rule, so builds and the processing of resource changes wait until the
+	 * documents have been loaded. The editors can keep changing the model in the meantime,
+	 * so every document is added to the model while the model lock is held.
+	 * 
+	 * @see #modelLock()
+	 */
+	public void scheduleLoadDocuments() {
+		Job job = new Job("Loading Chameleon project "+getProject().getName()) {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				loadDocuments(monitor);
+				return monitor.isCanceled() ? Status.CANCEL_STATUS : Status.OK_STATUS;
+			}
+		};
+		job.setRule(getProject());
+		job.setPriority(Job.LONG);
+		job.schedule();
+	}
+
 	/**
 	 * Clear the list of documents, and loads all the project files with a project extension into the model.
 	 */
 	public void loadDocuments(){
+		loadDocuments(new NullProgressMonitor());
+	}
+
+	/**
+	 * Clear the list of documents, and loads all the project files with a project extension into the model.
+	 * 
+	 * The files are loaded in the order of their priority: first the files that are open in an editor,
+	 * then the other files in the folders of those files, and finally the rest of the project. If the
+	 * monitor is canceled, the files that have not been loaded yet are registered as stubs, which are
+	 * parsed when they are needed.
+	 * 
+	 * The files that are not open in an editor and whose text has not changed since the snapshot of
+	 * the project was saved are registered as stubs as well. So if nothing has changed since the
+	 * previous session, only the open files are parsed, and the other files are only read to compute
+	 * their digests.
+	 * 
+	 * @see #snapshot()
+	 */
+	public void loadDocuments(IProgressMonitor monitor){
 		_documents.clear();
-		IResource[] resources;
+		_nbStubs.set(0);
+		_dependencyTracker.clear();
+		_verificationCache.clear();
+		List<IFile> files = new ArrayList<IFile>();
 		try {
-			resources = getProject().members();
+			IResource[] resources = getProject().members();
 			for (int i = 0; i < resources.length; i++) {
-				IResource resource = resources[i];
-				addResourceToModel(resource);
+				collectSourceFiles(resources[i], files);
+			}
+		} catch (CoreException e) {
+			e.printStackTrace();
+		}
+		monitor.beginTask("Loading "+getProject().getName(), files.size());
+		// Every file that is added would flush the caches of all compilation units that are
+		// already loaded, so the cache is flushed once, after all files have been loaded.
+		_batchThread = Thread.currentThread();
+		_flushPending = false;
+		Set<ChameleonDocument> openDocuments = openDocuments();
+		ProjectSnapshot snapshot = snapshot();
+		if(snapshot != null) {
+			snapshot.retain(files);
+		}
+		try {
+			List<List<IFile>> batches = prioritize(files);
+			for(int i = 0; i < batches.size(); i++) {
+				List<IFile> batch = batches.get(i);
+				if(snapshot != null) {
+					// The first batch contains the open files, which are parsed anyway. The other files
+					// are only read, and the ones that have not changed become stubs. When loading lazily,
+					// every file becomes a stub, but the entries of the changed files must still be removed.
+					List<IFile> changed = new ArrayList<IFile>();
+					for(IFile file: batch) {
+						if((i > 0 || LAZY_LOADING) && ! monitor.isCanceled() && snapshot.isUnchanged(file)) {
+							addStub(file);
+							monitor.worked(1);
+						} else {
+							// The file is parsed, which records it again, or it becomes a stub without
+							// having been checked.
+							snapshot.forget(file.getFullPath());
+							changed.add(file);
+						}
+					}
+					batch = changed;
+				}
+				if(LAZY_LOADING || monitor.isCanceled()) {
+					for(IFile file: batch) {
+						addStub(file);
+					}
+				} else if(PARALLEL_LOADING) {
+					loadInParallel(batch, openDocuments, monitor);
+				} else {
+					for(IFile file: batch) {
+						if(monitor.isCanceled()) {
+							addStub(file);
+						} else {
+							monitor.subTask(file.getName());
+							loadFile(file, openDocuments);
+						}
+						monitor.worked(1);
+					}
+				}
+			}
+		} finally {
+			_batchThread = null;
+			if(_flushPending) {
+				flushProjectCache();
+			}
+			saveSnapshot();
+			monitor.done();
+		}
+	}
+
+	/**
+	 * Split the given files into three lists, in order of decreasing priority: the files that
+	 * are open in an editor, the other files in the folders that contain an open file, and the
+	 * remaining files. The second list approximates the namespaces that the open files use
+	 * without having to parse them first.
+	 */
+	protected List<List<IFile>> prioritize(List<IFile> files) {
+		Set<IFile> open = new HashSet<IFile>(openFiles());
+		Set<IContainer> folders = new HashSet<IContainer>();
+		for(IFile file: open) {
+			folders.add(file.getParent());
+		}
+		List<IFile> first = new ArrayList<IFile>();
+		List<IFile> second = new ArrayList<IFile>();
+		List<IFile> third = new ArrayList<IFile>();
+		for(IFile file: files) {
+			if(open.contains(file)) {
+				first.add(file);
+			} else if(folders.contains(file.getParent())) {
+				second.add(file);
+			} else {
+				third.add(file);
+			}
+		}
+		List<List<IFile>> result = new ArrayList<List<IFile>>();
+		result.add(first);
+		result.add(second);
+		result.add(third);
+		return result;
+	}
+
+	/**
+	 * Return the files of this project that are open in an editor. This includes the editors
+	 * that have not been restored yet.
+	 */
+	public List<IFile> openFiles() {
+		final List<IFile> result = new ArrayList<IFile>();
+		runInUIThread(new Runnable() {
+			public void run() {
+				IWorkbenchWindow[] windows = PlatformUI.getWorkbench().getWorkbenchWindows();
+				for(int i = 0; i < windows.length; i++) {
+					IWorkbenchPage[] pages = windows[i].getPages();
+					for(int j = 0; j < pages.length; j++) {
+						IEditorReference[] references = pages[j].getEditorReferences();
+						for(int k = 0; k < references.length; k++) {
+							try {
+								IEditorInput input = references[k].getEditorInput();
+								if(input instanceof IFileEditorInput) {
+									IFile file = ((IFileEditorInput)input).getFile();
+									if(getProject().equals(file.getProject())) {
+										result.add(file);
+									}
+								}
+							} catch (PartInitException e) {
+								e.printStackTrace();
+							}
+						}
+					}
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Run the given runnable in the UI thread, and wait until it has finished. The workbench
+	 * can only be queried from the UI thread, while the documents are loaded in a background job.
+	 * If the workbench is not running, nothing happens.
+	 */
+	protected void runInUIThread(Runnable runnable) {
+		try {
+			Display display = PlatformUI.getWorkbench().getDisplay();
+			if(Display.getCurrent() == display) {
+				runnable.run();
+			} else {
+				display.syncExec(runnable);
+			}
+		} catch (IllegalStateException e) {
+			// The workbench is not running.
+		}
+	}
+
+	/**
+	 * Load the given file unless an editor has already added a document for it
+	 * to the model. The document is compacted unless it is one of the given open documents.
+	 */
+	protected void loadFile(IFile file, Collection<ChameleonDocument> openDocuments) {
+		if(documentOfPath(file.getFullPath()) == null) {
+			addFileToModel(file);
+			compact(documentOfPath(file.getFullPath()), openDocuments);
+		}
+	}
+
+	/**
+	 * Release the text of the given document if it is not open in an editor and
+	 * its compilation unit was parsed from its current text.
+	 */
+	public void compact(ChameleonDocument document) {
+		compact(document, openDocuments());
+	}
+
+	/**
+	 * Release the text of the given document if it is not one of the given open documents
+	 * and its compilation unit was parsed from its current text. The open documents are
+	 * passed in, so a batch of documents needs only one query of the workbench. A document
+	 * that is opened in the meantime is only compacted if its text is still equal to the
+	 * text from which it was parsed, and the first modification restores it.
+	 */
+	public void compact(ChameleonDocument document, Collection<ChameleonDocument> openDocuments) {
+		if(COMPACT_CLOSED_DOCUMENTS && document != null && ! document.isStub() && ! document.isCompact()) {
+			if(openDocuments.contains(document)) {
+				return;
+			}
+			if(isParsed(document, document.get())) {
+				document.compact();
+			}
+		}
+	}
+
+	/**
+	 * Return the documents that are open in an editor. The workbench is queried in the UI thread.
+	 */
+	public Set<ChameleonDocument> openDocuments() {
+		final Set<ChameleonDocument> result = new HashSet<ChameleonDocument>();
+		runInUIThread(new Runnable() {
+			public void run() {
+				for(ChameleonEditor editor: ChameleonEditor.getActiveChameleonEditors()) {
+					result.add(editor.getDocument());
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * The editor of the given document has been closed. If the editor did not save its changes,
+	 * the document is brought back in line with the file, after which the document is compacted.
+	 */
+	public void documentClosed(ChameleonDocument document) {
+		if(document == null || document.isStub() || documentOfPath(document.path()) != document) {
+			return;
+		}
+		try {
+			String text = SourceFileReader.read(document.getFile());
+			if(! isParsed(document, text)) {
+				document.replaceText(text);
+				updateModel(document);
+			}
+			// The closing editor may still be registered, so the check for open editors is skipped.
+			if(COMPACT_CLOSED_DOCUMENTS && isParsed(document, document.get())) {
+				document.compact();
 			}
-		
 		} catch (CoreException e) {
 			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Load the given files into the model using a pool with one thread per processor.
+	 * 
+	 * The workers read the files, and parse each of them into a compilation unit that is
+	 * not yet part of the model. Each worker uses its own copy of the language, so the namespace
+	 * parts of its compilation units are attached to a private default namespace. The compilation
+	 * units are then attached to the model on the calling thread in the order of their paths,
+	 * by moving their namespace parts to the shared namespaces. Only that step needs the model
+	 * lock, so the first documents are attached while the workers are parsing the remaining files.
+	 * 
+	 * If a file cannot be parsed by a worker, it is parsed again on the calling thread.
+	 */
+	protected void loadInParallel(List<IFile> files, Collection<ChameleonDocument> openDocuments, IProgressMonitor monitor) {
+		List<IFile> sorted = new ArrayList<IFile>(files);
+		Collections.sort(sorted, new Comparator<IFile>() {
+			public int compare(IFile first, IFile second) {
+				return first.getFullPath().toString().compareTo(second.getFullPath().toString());
+			}
+		});
+		int nbThreads = Math.max(1, Runtime.getRuntime().availableProcessors());
+		ExecutorService pool = Executors.newFixedThreadPool(nbThreads);
+		final ThreadLocal<Language> languages = new ThreadLocal<Language>();
+		try {
+			List<Future<DetachedParse>> parses = new ArrayList<Future<DetachedParse>>();
+			for(final IFile file: sorted) {
+				parses.add(pool.submit(new Callable<DetachedParse>() {
+					public DetachedParse call() {
+						return parseDetached(new ChameleonDocument(ChameleonProjectNature.this, file, file.getFullPath()), languages);
+					}
+				}));
+			}
+			for(int i = 0; i < parses.size(); i++) {
+				IFile file = sorted.get(i);
+				if(monitor.isCanceled()) {
+					parses.get(i).cancel(true);
+					addStub(file);
+				} else {
+					monitor.subTask(file.getName());
+					try {
+						DetachedParse parse = parses.get(i).get();
+						// An editor may have added the document while it was being parsed.
+						if(documentOfPath(parse.document().path()) == null) {
+							attach(parse);
+							compact(parse.document(), openDocuments);
+						}
+					} catch (ExecutionException e) {
+						e.getCause().printStackTrace();
+					}
+				}
+				monitor.worked(1);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			pool.shutdownNow();
 		}
+	}
+
+	/**
+	 * The result of parsing a document outside the model.
+	 */
+	private static class DetachedParse {
+		
+		public DetachedParse(ChameleonDocument document, boolean parsed, String digest, Set<String> names, long time) {
+			_document = document;
+			_parsed = parsed;
+			_digest = digest;
+			_names = names;
+			_time = time;
+		}
+		
+		private ChameleonDocument _document;
+		
+		public ChameleonDocument document() {
+			return _document;
+		}
+		
+		private boolean _parsed;
 		
+		/**
+		 * Check whether the document has been parsed. If not, it must be parsed
+		 * again when it is added to the model.
+		 */
+		public boolean isParsed() {
+			return _parsed;
+		}
+		
+		private String _digest;
+		
+		/**
+		 * Return the digest of the text of the document if it was parsed without errors. Null otherwise.
+		 */
+		public String digest() {
+			return _digest;
+		}
+		
+		private Set<String> _names;
+		
+		/**
+		 * Return the names that the document declares, if they are needed for the snapshot
+		 * of the project and the document was parsed without errors. Null otherwise.
+		 */
+		public Set<String> names() {
+			return _names;
+		}
+		
+		private long _time;
+		
+		public long time() {
+			return _time;
+		}
+	}
+
+	/**
+	 * Parse the given document, which is not part of the model, with the copy of the language
+	 * of the current thread. The copy is created the first time the current thread parses a document.
+	 * The tags of the document are installed right away, since no other thread knows the document yet.
+	 */
+	protected DetachedParse parseDetached(ChameleonDocument document, ThreadLocal<Language> languages) {
+		Language language = languages.get();
+		if(language == null) {
+			try {
+				language = language().clone();
+			} catch (RuntimeException e) {
+				// The language cannot be copied, so the document is parsed in the model.
+				return new DetachedParse(document, false, null, null, 0);
+			}
+			languages.set(language);
+		}
+		EclipseEditorInputProcessor processor = null;
+		for(InputProcessor candidate: language.processors(InputProcessor.class)) {
+			if(candidate instanceof EclipseEditorInputProcessor) {
+				processor = (EclipseEditorInputProcessor) candidate;
+				// The processor of a copy of the language does not know the project.
+				processor.setProjectNature(this);
+			}
+		}
+		if(processor == null) {
+			return new DetachedParse(document, false, null, null, 0);
+		}
+		String text = document.get();
+		String digest = null;
+		boolean parsed = false;
+		long start = System.nanoTime();
+		processor.startSession(document);
+		try {
+			language.connector(ModelFactory.class).addToModel(text, document.compilationUnit());
+			digest = digest(text);
+			parsed = true;
+		} catch (ParseException e) {
+			// The parse errors have been marked. Like in updateModel, the partial result is kept.
+			parsed = true;
+		} catch (RuntimeException e) {
+			if(Config.DEBUG) {
+				e.printStackTrace();
+			}
+		} finally {
+			if(parsed) {
+				processor.finishSession();
+			} else {
+				processor.abortSession();
+			}
+		}
+		long time = System.nanoTime() - start;
+		Set<String> names = null;
+		if(digest != null && SNAPSHOT_LOADING) {
+			names = ProjectSnapshot.declaredNames(document.compilationUnit(), text);
+		}
+		return new DetachedParse(document, parsed, digest, names, time);
+	}
+
+	/**
+	 * Add the document of the given parse to the model. The namespace parts of its compilation
+	 * unit are moved from the namespaces of the copy of the language that parsed it to the
+	 * corresponding namespaces of the model. If the document could not be parsed outside
+	 * the model, it is parsed again.
+	 */
+	protected void attach(DetachedParse parse) {
+		ChameleonDocument document = parse.document();
+		if(! parse.isParsed()) {
+			addToModel(document);
+			return;
+		}
+		_modelLock.lock();
+		try {
+			CompilationUnit cu = document.compilationUnit();
+			Namespace<?> root = language().defaultNamespace();
+			for(Element child: cu.children()) {
+				if(child instanceof NamespacePart) {
+					NamespacePart part = (NamespacePart) child;
+					Namespace<?> namespace = part.namespace();
+					part.setNamespace(namespace.parent() == null ? root : root.getOrCreateNamespace(namespace.getFullyQualifiedName()));
+				}
+			}
+			_documents.add(document);
+			document.setParsedDigest(parse.digest());
+			document.setParseTime(parse.time());
+			ProjectSnapshot snapshot = snapshot();
+			if(snapshot != null) {
+				snapshot.record(document.path(), parse.digest(), parse.names());
+			}
+			_dependencyTracker.reset(cu);
+			_dependencyTracker.updateFingerprint(cu);
+			flushProjectCache();
+		} finally {
+			_modelLock.unlock();
+		}
 	}
 
 	/**
@@ -384,41 +1171,223 @@ public class ChameleonProjectNature implements IProjectNature {
 	 * @param resource
 	 */
 	public void addResourceToModel(IResource resource) {
-		List<String> extensions = LanguageMgt.getInstance().extensions(language());
-		if (resource instanceof IFile)  {
-			if(!(isEclipseProjectFile(resource) || (isChameleonProjectFile(resource)))) {
-				IPath fullPath = resource.getFullPath();
-				String fileExtension = fullPath.getFileExtension();
-				if(extensions.contains(fileExtension)) {
-					System.out.println("ADDING :: "+resource.getName());
-					addToModel(new ChameleonDocument(this,(IFile)resource,resource.getFullPath()));
+		List<IFile> files = new ArrayList<IFile>();
+		collectSourceFiles(resource, files);
+		for(IFile file: files) {
+			addFileToModel(file);
+		}
+	}
+
+	/**
+	 * Create a document for the given source file and add it to the model.
+	 */
+	protected void addFileToModel(IFile file) {
+		if(LAZY_LOADING) {
+			addStub(file);
+		} else {
+			System.out.println("ADDING :: "+file.getName());
+			addToModel(new ChameleonDocument(this,file,file.getFullPath()));
+		}
+	}
+
+	/**
+	 * Register a stub document for the given file. The file is not read and
+	 * its compilation unit is not added to the model. If the project already
+	 * contains a document for the file, nothing happens.
+	 */
+	protected void addStub(IFile file) {
+		if(_documents.documentOfPath(file.getFullPath()) == null) {
+			_documents.add(new ChameleonDocument(this,file,file.getFullPath(),false));
+			_nbStubs.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Make sure that the given document is not a stub. If it is, its file is read
+	 * and its compilation unit is added to the model.
+	 */
+	public void ensureParsed(ChameleonDocument document) {
+		if(document != null && document.isStub()) {
+			_modelLock.lock();
+			try {
+				if(document.isStub()) {
+					try {
+						document.load();
+						updateModel(document);
+					} catch (CoreException e) {
+						e.printStackTrace();
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
 				}
+			} finally {
+				_modelLock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Check whether any of the documents of this project is a stub.
+	 */
+	public boolean hasStubs() {
+		return _nbStubs.get() > 0;
+	}
+
+	// The number of registered documents that are stubs.
+	private AtomicInteger _nbStubs = new AtomicInteger();
+
+	/**
+	 * Return the declaration to which the given cross-reference resolves. If the cross-reference
+	 * cannot be resolved while there are stubs, the declaration can be in one of them. The stubs
+	 * that can declare one of the names in the text of the cross-reference are then parsed in a
+	 * background job, and the cross-reference is reported as unresolved until that job has finished.
+	 * This is called from the UI thread, which must not wait until the stubs have been parsed.
+	 * 
+	 * @see ProjectSnapshot#mayDeclare(IPath, Collection)
+	 */
+	public Declaration declarator(CrossReference reference) throws LookupException {
+		try {
+			Declaration result = reference.getDeclarator();
+			if(result == null && hasStubs()) {
+				scheduleParseStubs(names(reference));
+			}
+			return result;
+		} catch(LookupException exc) {
+			if(hasStubs()) {
+				scheduleParseStubs(names(reference));
+			}
+			throw exc;
+		}
+	}
+
+	/**
+	 * Return the identifiers in the text of the given cross-reference. Null is returned
+	 * if the text is not known.
+	 */
+	private Set<String> names(CrossReference reference) {
+		ChameleonDocument document = document(reference);
+		Object tag = reference.tag(EclipseEditorTag.ALL_TAG);
+		if(document != null && tag instanceof EclipseEditorTag) {
+			try {
+				return ProjectSnapshot.identifiers(document.get(((EclipseEditorTag)tag).getOffset(), ((EclipseEditorTag)tag).getLength()));
+			} catch (BadLocationException e) {
+				// The tag no longer matches the text.
 			}
 		}
+		return null;
+	}
+
+	private Job _stubJob;
+
+	// The names for which the stubs must be parsed, or null if all stubs must be parsed.
+	private Set<String> _stubNames = new HashSet<String>();
+
+	/**
+	 * Parse the stubs that can declare one of the given names in a background job. If the names are
+	 * null, all stubs are parsed. The documents that are not open in an editor are compacted right
+	 * after they have been parsed, so parsing the stubs does not keep the text of every file in memory.
+	 * If the job is already scheduled, the names are added to those of the job. If it is running, it
+	 * runs again afterwards for the new names.
+	 */
+	protected synchronized void scheduleParseStubs(Set<String> names) {
+		if(names == null) {
+			_stubNames = null;
+		} else if(_stubNames != null) {
+			_stubNames.addAll(names);
+		}
+		if(_stubJob == null) {
+			_stubJob = new Job("Parsing Chameleon project "+getProject().getName()) {
+				@Override
+				protected IStatus run(IProgressMonitor monitor) {
+					Set<String> names;
+					synchronized(ChameleonProjectNature.this) {
+						names = _stubNames;
+						_stubNames = new HashSet<String>();
+					}
+					ProjectSnapshot snapshot = snapshot();
+					List<ChameleonDocument> documents = documents();
+					Set<ChameleonDocument> openDocuments = openDocuments();
+					monitor.beginTask("Parsing "+getProject().getName(), documents.size());
+					try {
+						for(ChameleonDocument document: documents) {
+							if(monitor.isCanceled()) {
+								return Status.CANCEL_STATUS;
+							}
+							if(document.isStub() && (names == null || snapshot == null || snapshot.mayDeclare(document.path(), names))) {
+								ensureParsed(document);
+								compact(document, openDocuments);
+							}
+							monitor.worked(1);
+						}
+					} finally {
+						saveSnapshot();
+						monitor.done();
+					}
+					return Status.OK_STATUS;
+				}
+			};
+			_stubJob.setPriority(Job.LONG);
+		}
+		// A job that is already waiting picks up the new names. A running job may have taken
+		// the names before they were added, so it is scheduled to run again.
+		if(_stubJob.getState() != Job.WAITING) {
+			_stubJob.schedule();
+		}
+	}
+
+	/**
+	 * Make sure that none of the documents of this project is a stub. This must be done
+	 * before the model as a whole is searched, because any stub can contribute to the
+	 * namespaces that are being looked up.
+	 */
+	public void ensureAllParsed() {
+		for(ChameleonDocument document: _documents.documents()) {
+			ensureParsed(document);
+		}
+	}
+
+	/**
+	 * Check whether the given resource is a source file of the language of this project.
+	 */
+	protected boolean isSourceFile(IResource resource) {
+		if (resource instanceof IFile && ! (isEclipseProjectFile(resource) || isChameleonProjectFile(resource))) {
+			List<String> extensions = LanguageMgt.getInstance().extensions(language());
+			return extensions.contains(extension(resource));
+		}
+		return false;
+	}
+
+	/**
+	 * Add the source files in the given resource to the given list. The resource can be either
+	 * a file or a folder.
+	 */
+	protected void collectSourceFiles(IResource resource, List<IFile> files) {
+		if (isSourceFile(resource))  {
+			files.add((IFile)resource);
+		}
 		if (resource instanceof IFolder) {
 			IFolder folder = (IFolder) resource ;
-			IResource[] resources = null;
 			try {
-				resources = folder.members();
+				IResource[] resources = folder.members();
+				for (int i = 0; i < resources.length; i++) {
+					collectSourceFiles(resources[i], files);
+				}
 			} catch (CoreException e) {
 				e.printStackTrace();
 			}
-			for (int i = 0; i < resources.length; i++) {
-				IResource folderResource = resources[i];
-				addResourceToModel(folderResource);
-			}
-			
 		}
 	}
 
 
 	
 
-
-	/* (non-Javadoc)
-	 * @see chameleonEditor.editors.IChameleonDocument#getModel()
+	/**
+	 * Return the root namespace of the model of this project. All stubs are parsed first,
+	 * so this must only be used to search the model as a whole. To obtain the language of
+	 * this project, use language() instead.
 	 */
 	public Namespace<?> getModel(){
+		ensureAllParsed();
 		return language().defaultNamespace();
 	}
 
@@ -429,21 +1398,21 @@ public class ChameleonProjectNature implements IProjectNature {
 	public void addToModel(ChameleonDocument document) {
 		//FIXME: why do we remove the 'same' document and add the new one if
 		//       the document was already in the model?
-		ChameleonDocument same = null;
-		for (ChameleonDocument element: _documents) {
-			if (element.isSameDocument(document)) {
-				same = element;
+		_modelLock.lock();
+		try {
+			ChameleonDocument same = _documents.documentOfPath(document.path());
+			if (same!=null) {
+				removeDocument(same);
 			}
+			_documents.add(document);
+			updateModel(document);
+		} finally {
+			_modelLock.unlock();
 		}
-		if (same!=null) {
-			removeDocument(same);
-		}
-		_documents.add(document);
-		updateModel(document);
 	}
 
 	public List<ChameleonDocument> documents(){
-		return new ArrayList<ChameleonDocument>(_documents);
+		return new ArrayList<ChameleonDocument>(_documents.documents());
 	}
 	
 	/**
@@ -455,12 +1424,7 @@ public class ChameleonProjectNature implements IProjectNature {
 	 */
 	public ChameleonDocument document(Element<?,?> element) {
 		if(element != null) {
-			CompilationUnit cu = element.nearestElement(CompilationUnit.class);
-			for(ChameleonDocument doc : _documents) {
-				if(doc.compilationUnit().equals(cu)) {
-					return doc;
-				}
-			}
+			return _documents.documentOf(element.nearestElement(CompilationUnit.class));
 		}
 		return null;
 	}
@@ -478,8 +1442,27 @@ public class ChameleonProjectNature implements IProjectNature {
    @*/
 	public void removeDocument(ChameleonDocument document){
 		if(document != null) {
-			_documents.remove(document);
-			document.compilationUnit().disconnect();
+			_modelLock.lock();
+			try {
+				if(_documents.remove(document) && document.isStub()) {
+					_nbStubs.decrementAndGet();
+				}
+				CompilationUnit cu = document.compilationUnit();
+				// The cached results of the cross-references to the declarations of the document become
+				// invalid by themselves when the compilation unit is disconnected, but the other checks
+				// of the compilation units that depend on it must be done again.
+				for(CompilationUnit dependent: _dependencyTracker.affectedBy(Collections.singleton(cu), compilationUnits())) {
+					_verificationCache.forget(dependent);
+				}
+				_dependencyTracker.forget(cu);
+				ProjectSnapshot snapshot = snapshot();
+				if(snapshot != null) {
+					snapshot.forget(document.path());
+				}
+				cu.disconnect();
+			} finally {
+				_modelLock.unlock();
+			}
 		}
 	}
 
@@ -488,23 +1471,19 @@ public class ChameleonProjectNature implements IProjectNature {
 	}
 
 	public void addModelElement(ChameleonDocument document, Element parent) {
-		_documents.add(document);
+		_modelLock.lock();
 		try {
-			modelFactory().addToModel(document.get(), document.compilationUnit());
+			_documents.add(document);
+			parseCurrentText(document);
 		} catch (ParseException e) {
 			e.printStackTrace();
-		} 
+		} finally {
+			_modelLock.unlock();
+		}
 	}
 	
 	public ChameleonDocument documentOfPath(IPath path) {
-		ChameleonDocument result = null;
-		for(ChameleonDocument doc:_documents) {
-			if(doc.path().equals(path)) {
-				result = doc;
-				break;
-			}
-		}
-		return result;
+		return _documents.documentOfPath(path);
 	}
 
 	/**
@@ -513,15 +1492,7 @@ public class ChameleonProjectNature implements IProjectNature {
 	 * @return returns null if no appropriate document found.
 	 */
 	public ChameleonDocument documentOfFile(IFile file){
-		if(file == null) {
-			return null;
-		}
-		for(ChameleonDocument doc : _documents){
-			if(file.equals(doc.getFile())){
-				return doc;
-			}
-		}
-		return null;
+		return _documents.documentOfFile(file);
 	}
 
 	/**
@@ -541,19 +1512,82 @@ public class ChameleonProjectNature implements IProjectNature {
 		return null;
 	}
 
+	/**
+	 * Collect the parse times and sizes of the documents of this project. This
+	 * traverses the entire model, so it is meant for diagnostics only.
+	 */
+	public ProjectStatistics statistics() {
+		return new ProjectStatistics(this);
+	}
+
 	public List<CompilationUnit> compilationUnits() {
 		ArrayList<CompilationUnit> result = new ArrayList<CompilationUnit>();
-		for(ChameleonDocument document: documents()) {
+		for(ChameleonDocument document: _documents.documents()) {
 			result.add(document.compilationUnit());
 		}
 		return result;
 	}
 
+	/**
+	 * Flush the caches that can be affected by a change to the given compilation unit.
+	 * 
+	 * @see #flushCache(Collection)
+	 */
+	public void flushCache(CompilationUnit changed) {
+		flushCache(Collections.singletonList(changed));
+	}
+
+	/**
+	 * Flush the caches that can be affected by a change to the given compilation units.
+	 * If the namespaces or the declarations of any of the compilation units have changed,
+	 * the entire project cache is flushed. Otherwise, only the caches of the changed compilation
+	 * units, the compilation units that depend on them, and the compilation units with unknown
+	 * dependencies are flushed. The cached verification results of the compilation units that
+	 * depend on the changed compilation units are discarded.
+	 */
+	public void flushCache(Collection<CompilationUnit> changed) {
+		if(Thread.currentThread() == _batchThread) {
+			_flushPending = true;
+			return;
+		}
+		boolean structural = false;
+		for(CompilationUnit cu: changed) {
+			if(_dependencyTracker.updateFingerprint(cu)) {
+				structural = true;
+			}
+			// The cross-references of a changed compilation unit can now resolve to other declarations.
+			_dependencyTracker.reset(cu);
+		}
+		if(structural) {
+			flushProjectCache();
+		} else {
+			for(CompilationUnit compilationUnit: _dependencyTracker.affectedBy(changed, compilationUnits())) {
+				compilationUnit.flushCache();
+				// The checks of a dependent compilation unit can read the declarations of the changed
+				// compilation units without resolving a cross-reference to them, so its cached results
+				// are not reliable anymore.
+				if(! changed.contains(compilationUnit)) {
+					_verificationCache.forget(compilationUnit);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Flush the caches of all compilation units of the project and the cache of the language.
+	 * The cached verification results are discarded as well, since the cross-references can
+	 * now resolve to other declarations.
+	 */
 	public void flushProjectCache() {
+		if(Thread.currentThread() == _batchThread) {
+			_flushPending = true;
+			return;
+		}
 		for(CompilationUnit compilationUnit: compilationUnits()) {
 			compilationUnit.flushCache();
 		}
 		language().flushCache();
+		_verificationCache.clear();
 	}
 
 }
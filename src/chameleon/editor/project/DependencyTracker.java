@@ -0,0 +1,261 @@
+package chameleon.editor.project;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jface.text.BadLocationException;
+
+import chameleon.core.compilationunit.CompilationUnit;
+import chameleon.core.declaration.Declaration;
+import chameleon.core.element.Element;
+import chameleon.core.modifier.Modifier;
+import chameleon.core.namespacepart.NamespacePart;
+import chameleon.core.reference.CrossReference;
+import chameleon.editor.connector.EclipseEditorTag;
+import chameleon.editor.editors.ChameleonDocument;
+import chameleon.exception.ModelException;
+import chameleon.oo.type.inheritance.InheritanceRelation;
+
+/**
+ * Keeps track of the compilation units of a project whose cross-references resolve to
+ * declarations in other compilation units. This allows the caches to be flushed only for
+ * the compilation units that can be affected by a change.
+ *
+ * The dependencies of a compilation unit are recorded after the compilation unit has been
+ * verified, because all its cross-references are resolved at that time anyway. A compilation
+ * unit whose dependencies are not known, because it was changed since it was recorded or
+ * because one of its cross-references could not be resolved, is considered to depend on
+ * everything.
+ *
+ * A change can only be handled locally if it does not change the declarations of the
+ * changed compilation unit. That is checked with a fingerprint of the namespaces and the
+ * signatures of the declarations of the compilation unit.
+ *
+ * A change to the bodies of the declarations of a compilation unit can still change the
+ * result of a lookup in a compilation unit that depends on it indirectly, for example through
+ * the inferred type of an expression. Therefore, the dependents of a change are computed transitively.
+ */
+public class DependencyTracker {
+
+	public DependencyTracker(ChameleonProjectNature nature) {
+		_nature = nature;
+	}
+
+	private ChameleonProjectNature _nature;
+
+	public ChameleonProjectNature nature() {
+		return _nature;
+	}
+
+	// The compilation units to which the cross-references of a compilation unit resolve.
+	private Map<CompilationUnit, Set<CompilationUnit>> _dependencies = new HashMap<CompilationUnit, Set<CompilationUnit>>();
+
+	// The compilation units with cross-references that resolve to a compilation unit.
+	private Map<CompilationUnit, Set<CompilationUnit>> _dependents = new HashMap<CompilationUnit, Set<CompilationUnit>>();
+
+	private Map<CompilationUnit, String> _fingerprints = new HashMap<CompilationUnit, String>();
+
+	/**
+	 * Record the dependencies of the given compilation unit by resolving all its
+	 * cross-references. If a cross-reference cannot be resolved, the dependencies
+	 * of the compilation unit remain unknown.
+	 */
+	public void record(CompilationUnit cu) {
+		Set<CompilationUnit> dependencies = new HashSet<CompilationUnit>();
+		try {
+			for(CrossReference reference: cu.descendants(CrossReference.class)) {
+				Element declarator = reference.getDeclarator();
+				if(declarator == null) {
+					reset(cu);
+					return;
+				}
+				CompilationUnit target = declarator.nearestAncestor(CompilationUnit.class);
+				if(target != null && target != cu) {
+					dependencies.add(target);
+				}
+			}
+		} catch(ModelException exc) {
+			reset(cu);
+			return;
+		}
+		synchronized(this) {
+			removeDependencies(cu);
+			_dependencies.put(cu, dependencies);
+			for(CompilationUnit target: dependencies) {
+				Set<CompilationUnit> dependents = _dependents.get(target);
+				if(dependents == null) {
+					dependents = new HashSet<CompilationUnit>();
+					_dependents.put(target, dependents);
+				}
+				dependents.add(cu);
+			}
+		}
+	}
+
+	/**
+	 * Forget the dependencies of the given compilation unit. This must be done when
+	 * its cross-references may resolve to other declarations than before.
+	 */
+	public synchronized void reset(CompilationUnit cu) {
+		removeDependencies(cu);
+	}
+
+	/**
+	 * Forget everything about the given compilation unit. This must be done when it
+	 * is removed from the project.
+	 */
+	public synchronized void forget(CompilationUnit cu) {
+		removeDependencies(cu);
+		_dependents.remove(cu);
+		_fingerprints.remove(cu);
+	}
+
+	/**
+	 * Forget everything about all compilation units.
+	 */
+	public synchronized void clear() {
+		_dependencies.clear();
+		_dependents.clear();
+		_fingerprints.clear();
+	}
+
+	private void removeDependencies(CompilationUnit cu) {
+		Set<CompilationUnit> old = _dependencies.remove(cu);
+		if(old != null) {
+			for(CompilationUnit target: old) {
+				Set<CompilationUnit> dependents = _dependents.get(target);
+				if(dependents != null) {
+					dependents.remove(cu);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Store the current fingerprint of the given compilation unit, and check whether
+	 * its declarations have changed since the previous fingerprint. If there was no
+	 * previous fingerprint, true is returned.
+	 */
+	public boolean updateFingerprint(CompilationUnit cu) {
+		String fingerprint = fingerprint(cu);
+		String old;
+		synchronized(this) {
+			old = _fingerprints.put(cu, fingerprint);
+		}
+		return old == null || ! old.equals(fingerprint);
+	}
+
+	/**
+	 * Return the compilation units of the given list whose caches can be affected
+	 * by a change to the bodies of the declarations in the given changed compilation units:
+	 * the changed compilation units, the compilation units that depend on them directly or
+	 * indirectly, and the compilation units whose dependencies are unknown.
+	 */
+	public synchronized Set<CompilationUnit> affectedBy(Collection<CompilationUnit> changed, List<CompilationUnit> all) {
+		Set<CompilationUnit> result = new HashSet<CompilationUnit>(changed);
+		List<CompilationUnit> todo = new ArrayList<CompilationUnit>(changed);
+		while(! todo.isEmpty()) {
+			Set<CompilationUnit> dependents = _dependents.get(todo.remove(todo.size() - 1));
+			if(dependents != null) {
+				for(CompilationUnit dependent: dependents) {
+					if(result.add(dependent)) {
+						todo.add(dependent);
+					}
+				}
+			}
+		}
+		for(CompilationUnit cu: all) {
+			if(! _dependencies.containsKey(cu)) {
+				result.add(cu);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Return the compilation units that are known to depend on the given compilation unit.
+	 */
+	public synchronized Set<CompilationUnit> dependents(CompilationUnit cu) {
+		Set<CompilationUnit> dependents = _dependents.get(cu);
+		if(dependents == null) {
+			return Collections.emptySet();
+		} else {
+			return new HashSet<CompilationUnit>(dependents);
+		}
+	}
+
+	/**
+	 * Return a description of the namespaces and the declarations of the given compilation unit.
+	 * The signatures of the declarations are taken from the source text, so the fingerprint does
+	 * not depend on the declaration classes of a particular language.
+	 */
+	protected String fingerprint(CompilationUnit cu) {
+		List<String> entries = new ArrayList<String>();
+		for(NamespacePart part: cu.descendants(NamespacePart.class)) {
+			entries.add("namespace "+part.namespace().getFullyQualifiedName());
+		}
+		ChameleonDocument document = nature().document(cu);
+		for(Declaration declaration: cu.descendants(Declaration.class)) {
+			entries.add(declaration.getClass().getName()+" "+name(declaration, document)+signature(declaration, document));
+		}
+		Collections.sort(entries);
+		StringBuffer result = new StringBuffer();
+		for(String entry: entries) {
+			result.append(entry);
+			result.append('\n');
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Return the text of the parts of the signature of the given declaration that are not
+	 * declarations themselves: its modifiers, its inheritance relations and the references
+	 * to its type. Parameters are declarations, so they have signatures of their own. The
+	 * body of a declaration is not part of its signature.
+	 *
+	 * In some languages, a declaration shares its modifiers and its type with other declarations,
+	 * such as the variables of "int x, y;". Those are children of its parent, which is then taken
+	 * into account as well.
+	 */
+	private String signature(Declaration declaration, ChameleonDocument document) {
+		StringBuffer result = new StringBuffer();
+		appendSignatureParts(declaration, document, result);
+		Element parent = declaration.parent();
+		if(parent != null && ! (parent instanceof Declaration) && ! (parent instanceof NamespacePart) && ! (parent instanceof CompilationUnit)) {
+			appendSignatureParts(parent, document, result);
+		}
+		return result.toString();
+	}
+
+	private void appendSignatureParts(Element element, ChameleonDocument document, StringBuffer result) {
+		for(Element child: element.children()) {
+			if(child instanceof Modifier || child instanceof CrossReference || child instanceof InheritanceRelation) {
+				result.append(' ');
+				result.append(text(child, EclipseEditorTag.ALL_TAG, document));
+			}
+		}
+	}
+
+	private String name(Element element, ChameleonDocument document) {
+		return text(element, EclipseEditorTag.NAME_TAG, document);
+	}
+
+	private String text(Element element, String tagName, ChameleonDocument document) {
+		EclipseEditorTag tag = (EclipseEditorTag) element.tag(tagName);
+		if(tag != null && document != null) {
+			try {
+				return document.get(tag.getOffset(), tag.getLength());
+			} catch (BadLocationException e) {
+				// The tag is no longer valid, use the default name.
+			}
+		}
+		return "?";
+	}
+
+}
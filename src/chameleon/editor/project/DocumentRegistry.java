@@ -0,0 +1,137 @@
+package chameleon.editor.project;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.IPath;
+
+import chameleon.core.compilationunit.CompilationUnit;
+import chameleon.editor.editors.ChameleonDocument;
+
+/**
+ * The documents of a Chameleon project, indexed by path, by file and by compilation unit.
+ *
+ * Lookups do not lock and can be done from any thread. Adding and removing documents
+ * is serialized, so the three indexes stay consistent with each other. Iteration is
+ * always done over a snapshot, so the resource listener, the builder and the UI thread
+ * can change the registry while another thread is iterating over its documents.
+ */
+public class DocumentRegistry {
+
+	public DocumentRegistry() {
+		_byPath = new LinkedHashMap<IPath, ChameleonDocument>();
+		_pathIndex = new ConcurrentHashMap<IPath, ChameleonDocument>();
+		_fileIndex = new ConcurrentHashMap<IFile, ChameleonDocument>();
+		_compilationUnitIndex = new ConcurrentHashMap<CompilationUnit, ChameleonDocument>();
+	}
+
+	// The documents in the order in which they were added. Guarded by this.
+	private LinkedHashMap<IPath, ChameleonDocument> _byPath;
+
+	private Map<IPath, ChameleonDocument> _pathIndex;
+
+	private Map<IFile, ChameleonDocument> _fileIndex;
+
+	private Map<CompilationUnit, ChameleonDocument> _compilationUnitIndex;
+
+	// The cached result of documents(). Reset to null by every modification.
+	private volatile List<ChameleonDocument> _snapshot;
+
+	/**
+	 * Add the given document to this registry. If a document with the same path was
+	 * registered, it is replaced by the given document and returned. Otherwise null
+	 * is returned.
+	 */
+	public synchronized ChameleonDocument add(ChameleonDocument document) {
+		ChameleonDocument old = _byPath.remove(document.path());
+		if(old != null) {
+			unindex(old);
+		}
+		_byPath.put(document.path(), document);
+		_pathIndex.put(document.path(), document);
+		if(document.getFile() != null) {
+			_fileIndex.put(document.getFile(), document);
+		}
+		if(document.compilationUnit() != null) {
+			_compilationUnitIndex.put(document.compilationUnit(), document);
+		}
+		_snapshot = null;
+		return old;
+	}
+
+	/**
+	 * Remove the given document from this registry. Return true if the document was
+	 * registered.
+	 */
+	public synchronized boolean remove(ChameleonDocument document) {
+		if(_byPath.get(document.path()) == document) {
+			_byPath.remove(document.path());
+			unindex(document);
+			_snapshot = null;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Remove all documents from this registry.
+	 */
+	public synchronized void clear() {
+		_byPath.clear();
+		_pathIndex.clear();
+		_fileIndex.clear();
+		_compilationUnitIndex.clear();
+		_snapshot = null;
+	}
+
+	private void unindex(ChameleonDocument document) {
+		_pathIndex.remove(document.path());
+		if(document.getFile() != null && _fileIndex.get(document.getFile()) == document) {
+			_fileIndex.remove(document.getFile());
+		}
+		if(document.compilationUnit() != null) {
+			_compilationUnitIndex.remove(document.compilationUnit());
+		}
+	}
+
+	public ChameleonDocument documentOfPath(IPath path) {
+		return path == null ? null : _pathIndex.get(path);
+	}
+
+	public ChameleonDocument documentOfFile(IFile file) {
+		return file == null ? null : _fileIndex.get(file);
+	}
+
+	public ChameleonDocument documentOf(CompilationUnit compilationUnit) {
+		return compilationUnit == null ? null : _compilationUnitIndex.get(compilationUnit);
+	}
+
+	public int size() {
+		return _pathIndex.size();
+	}
+
+	/**
+	 * Return an unmodifiable snapshot of the documents in this registry, in the order
+	 * in which they were added. Later modifications of the registry do not affect the
+	 * returned list.
+	 */
+	public List<ChameleonDocument> documents() {
+		List<ChameleonDocument> result = _snapshot;
+		if(result == null) {
+			synchronized(this) {
+				result = _snapshot;
+				if(result == null) {
+					result = Collections.unmodifiableList(new ArrayList<ChameleonDocument>(_byPath.values()));
+					_snapshot = result;
+				}
+			}
+		}
+		return result;
+	}
+
+}
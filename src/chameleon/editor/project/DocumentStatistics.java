@@ -0,0 +1,128 @@
+package chameleon.editor.project;
+
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.jface.text.BadPositionCategoryException;
+
+import chameleon.core.element.Element;
+import chameleon.editor.connector.EclipseEditorTag;
+import chameleon.editor.editors.ChameleonDocument;
+
+/**
+ * A snapshot of the size of a document of a Chameleon project and of the time
+ * it took to parse it.
+ */
+public class DocumentStatistics {
+
+	/**
+	 * Collect the statistics of the given document. Counting the elements traverses
+	 * the entire compilation unit of the document.
+	 */
+	public DocumentStatistics(ChameleonDocument document) {
+		_path = document.path();
+		_stub = document.isStub();
+		_parseTime = document.parseTime();
+		_textLength = document.getLength();
+		_nbElements = document.compilationUnit().descendants(Element.class).size();
+		try {
+			_nbEditorTags = document.getPositions(EclipseEditorTag.CHAMELEON_CATEGORY).length;
+		} catch (BadPositionCategoryException e) {
+			_nbEditorTags = 0;
+		}
+		_nbEditorTags += document.tagStore().size();
+		_cacheSize = document.getProjectNature().verificationCache().size(document.compilationUnit());
+		_nbDependents = document.getProjectNature().dependencyTracker().dependents(document.compilationUnit()).size();
+		_nbElementReparses = document.nbElementReparses();
+		_nbDocumentReparses = document.nbDocumentReparses();
+	}
+
+	private IPath _path;
+
+	private boolean _stub;
+
+	private long _parseTime;
+
+	private int _textLength;
+
+	private int _nbElements;
+
+	private int _nbEditorTags;
+
+	private int _cacheSize;
+
+	private int _nbDependents;
+
+	private int _nbElementReparses;
+
+	private int _nbDocumentReparses;
+
+	public IPath path() {
+		return _path;
+	}
+
+	/**
+	 * Check whether the document was a stub that has not been parsed.
+	 */
+	public boolean isStub() {
+		return _stub;
+	}
+
+	/**
+	 * The time in nanoseconds that the last parse of the document took.
+	 */
+	public long parseTime() {
+		return _parseTime;
+	}
+
+	/**
+	 * The number of characters in the document.
+	 */
+	public int textLength() {
+		return _textLength;
+	}
+
+	/**
+	 * The number of elements in the compilation unit of the document.
+	 */
+	public int nbElements() {
+		return _nbElements;
+	}
+
+	/**
+	 * The number of editor tags in the document.
+	 */
+	public int nbEditorTags() {
+		return _nbEditorTags;
+	}
+
+	/**
+	 * The number of verification results that the editor caches for the elements of the
+	 * compilation unit of the document. The lookup caches of the model itself are not
+	 * included, since the model does not expose their size.
+	 */
+	public int cacheSize() {
+		return _cacheSize;
+	}
+
+	/**
+	 * The number of compilation units whose cached lookups are known to depend on
+	 * the compilation unit of the document. Their caches are flushed when the document changes.
+	 */
+	public int nbDependents() {
+		return _nbDependents;
+	}
+
+	/**
+	 * The number of times that the reconciler has parsed a single element of the document again.
+	 */
+	public int nbElementReparses() {
+		return _nbElementReparses;
+	}
+
+	/**
+	 * The number of times that the reconciler had to parse the entire document again.
+	 */
+	public int nbDocumentReparses() {
+		return _nbDocumentReparses;
+	}
+
+}
@@ -0,0 +1,278 @@
+package chameleon.editor.project;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+
+import chameleon.core.compilationunit.CompilationUnit;
+import chameleon.core.declaration.Declaration;
+import chameleon.core.namespacepart.NamespacePart;
+import chameleon.editor.connector.EclipseEditorTag;
+
+/**
+ * A snapshot of the source files of a project that is kept on disk between sessions. For every
+ * file that was parsed without errors, the snapshot stores the digest of the text that was parsed,
+ * and the names that the file declares: the names of its declarations and the parts of the names
+ * of its namespaces.
+ *
+ * When the project is loaded, a file whose text still has the digest of the snapshot does not
+ * have to be parsed to know what it declares, so it is registered as a stub. When a cross-reference
+ * cannot be resolved, only the stubs that declare one of the names in the cross-reference, and the
+ * stubs that are not in the snapshot, have to be parsed.
+ *
+ * The elements of the Chameleon model cannot be serialized, and the model factory can only add
+ * a compilation unit to the model by parsing it, so the compilation units themselves are not stored.
+ */
+public class ProjectSnapshot {
+
+	/**
+	 * Create a snapshot that is stored in the given file. Nothing is read until
+	 * load() is called.
+	 */
+	public ProjectSnapshot(File file) {
+		_file = file;
+	}
+
+	private File _file;
+
+	// The version of the format of the file. A file with another version is ignored.
+	private static final int VERSION = 1;
+
+	private static class Entry {
+
+		public Entry(String digest, Set<String> names) {
+			_digest = digest;
+			_names = names;
+		}
+
+		private String _digest;
+
+		private Set<String> _names;
+	}
+
+	// The entries of the files, by the full path of the file.
+	private Map<String, Entry> _entries = new HashMap<String, Entry>();
+
+	// True if the entries have changed since they were loaded or saved.
+	private boolean _modified;
+
+	/**
+	 * Replace the entries of this snapshot by those in its file. If the file does not exist
+	 * or cannot be read, the snapshot is empty.
+	 */
+	public synchronized void load() {
+		_entries.clear();
+		_modified = false;
+		if(! _file.isFile()) {
+			return;
+		}
+		try {
+			DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(_file)));
+			try {
+				if(input.readInt() != VERSION) {
+					return;
+				}
+				int nbEntries = input.readInt();
+				for(int i = 0; i < nbEntries; i++) {
+					String path = input.readUTF();
+					String digest = input.readUTF();
+					int nbNames = input.readInt();
+					Set<String> names = new HashSet<String>();
+					for(int j = 0; j < nbNames; j++) {
+						names.add(input.readUTF());
+					}
+					_entries.put(path, new Entry(digest, names));
+				}
+			} finally {
+				input.close();
+			}
+		} catch (IOException e) {
+			// A damaged snapshot only means that the files have to be parsed.
+			e.printStackTrace();
+			_entries.clear();
+		}
+	}
+
+	/**
+	 * Write the entries of this snapshot to its file if they have changed. The entries are
+	 * written to a temporary file first, so a failed write does not damage the previous snapshot.
+	 */
+	public synchronized void save() {
+		if(! _modified) {
+			return;
+		}
+		File temporary = new File(_file.getPath()+".tmp");
+		try {
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+			try {
+				output.writeInt(VERSION);
+				output.writeInt(_entries.size());
+				for(Map.Entry<String, Entry> entry: _entries.entrySet()) {
+					output.writeUTF(entry.getKey());
+					output.writeUTF(entry.getValue()._digest);
+					output.writeInt(entry.getValue()._names.size());
+					for(String name: entry.getValue()._names) {
+						output.writeUTF(name);
+					}
+				}
+			} finally {
+				output.close();
+			}
+			if(_file.exists() && ! _file.delete()) {
+				throw new IOException("Cannot replace "+_file);
+			}
+			if(! temporary.renameTo(_file)) {
+				throw new IOException("Cannot rename "+temporary+" to "+_file);
+			}
+			_modified = false;
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Check whether the text of the given file has the digest of its entry. If it has not,
+	 * the entry is removed.
+	 */
+	public boolean isUnchanged(IFile file) {
+		String key = file.getFullPath().toString();
+		Entry entry;
+		synchronized(this) {
+			entry = _entries.get(key);
+		}
+		if(entry == null) {
+			return false;
+		}
+		String digest = null;
+		try {
+			digest = ChameleonProjectNature.digest(SourceFileReader.read(file));
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (CoreException e) {
+			e.printStackTrace();
+		}
+		if(entry._digest.equals(digest)) {
+			return true;
+		}
+		synchronized(this) {
+			if(_entries.get(key) == entry) {
+				_entries.remove(key);
+				_modified = true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Store the digest of the text from which the file with the given path was parsed, and
+	 * the names that it declares. If the digest is null, the file was not parsed successfully,
+	 * and its entry is removed. If the names are null, they are not known, and the entry is
+	 * removed as well.
+	 */
+	public synchronized void record(IPath path, String digest, Set<String> names) {
+		if(digest == null || names == null) {
+			forget(path);
+		} else {
+			_entries.put(path.toString(), new Entry(digest, names));
+			_modified = true;
+		}
+	}
+
+	/**
+	 * Remove the entry of the file with the given path.
+	 */
+	public synchronized void forget(IPath path) {
+		if(_entries.remove(path.toString()) != null) {
+			_modified = true;
+		}
+	}
+
+	/**
+	 * Remove the entries of the files that are not in the given collection.
+	 */
+	public synchronized void retain(Collection<IFile> files) {
+		Set<String> keep = new HashSet<String>();
+		for(IFile file: files) {
+			keep.add(file.getFullPath().toString());
+		}
+		Iterator<String> paths = _entries.keySet().iterator();
+		while(paths.hasNext()) {
+			if(! keep.contains(paths.next())) {
+				paths.remove();
+				_modified = true;
+			}
+		}
+	}
+
+	/**
+	 * Check whether the file with the given path may declare one of the given names. That
+	 * is the case if it declares one of them according to its entry, or if it has no entry.
+	 */
+	public synchronized boolean mayDeclare(IPath path, Collection<String> names) {
+		Entry entry = _entries.get(path.toString());
+		if(entry == null) {
+			return true;
+		}
+		for(String name: names) {
+			if(entry._names.contains(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Return the names that the given compilation unit declares: the names of its declarations,
+	 * and the parts of the names of its namespaces. The names of the declarations are taken from
+	 * the given text, which is the text from which the compilation unit has just been parsed.
+	 * If the name of a declaration is not known, null is returned.
+	 */
+	public static Set<String> declaredNames(CompilationUnit cu, String text) {
+		Set<String> result = new HashSet<String>();
+		for(NamespacePart part: cu.descendants(NamespacePart.class)) {
+			result.addAll(identifiers(part.namespace().getFullyQualifiedName()));
+		}
+		for(Declaration declaration: cu.descendants(Declaration.class)) {
+			EclipseEditorTag tag = (EclipseEditorTag) declaration.tag(EclipseEditorTag.NAME_TAG);
+			if(tag == null || tag.getOffset() + tag.getLength() > text.length()) {
+				return null;
+			}
+			result.addAll(identifiers(text.substring(tag.getOffset(), tag.getOffset() + tag.getLength())));
+		}
+		return result;
+	}
+
+	/**
+	 * Return the identifiers in the given text, such as the parts of a qualified name.
+	 */
+	public static Set<String> identifiers(String text) {
+		Set<String> result = new HashSet<String>();
+		int start = -1;
+		for(int i = 0; i <= text.length(); i++) {
+			boolean part = i < text.length() && Character.isJavaIdentifierPart(text.charAt(i));
+			if(part && start < 0) {
+				start = i;
+			} else if(! part && start >= 0) {
+				result.add(text.substring(start, i));
+				start = -1;
+			}
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,130 @@
+package chameleon.editor.project;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import chameleon.editor.editors.ChameleonDocument;
+
+/**
+ * A snapshot of the statistics of all documents of a Chameleon project, together
+ * with the totals for the whole project.
+ */
+public class ProjectStatistics {
+
+	public ProjectStatistics(ChameleonProjectNature nature) {
+		List<DocumentStatistics> documents = new ArrayList<DocumentStatistics>();
+		for(ChameleonDocument document: nature.documents()) {
+			DocumentStatistics statistics = new DocumentStatistics(document);
+			documents.add(statistics);
+			_totalParseTime += statistics.parseTime();
+			_totalTextLength += statistics.textLength();
+			_totalElements += statistics.nbElements();
+			_totalEditorTags += statistics.nbEditorTags();
+			_totalCacheSize += statistics.cacheSize();
+			_totalElementReparses += statistics.nbElementReparses();
+			_totalDocumentReparses += statistics.nbDocumentReparses();
+			if(statistics.isStub()) {
+				_nbStubs++;
+			}
+		}
+		_documents = Collections.unmodifiableList(documents);
+	}
+
+	private List<DocumentStatistics> _documents;
+
+	private long _totalParseTime;
+
+	private long _totalTextLength;
+
+	private long _totalElements;
+
+	private long _totalEditorTags;
+
+	private long _totalCacheSize;
+
+	private long _totalElementReparses;
+
+	private long _totalDocumentReparses;
+
+	private int _nbStubs;
+
+	public List<DocumentStatistics> documents() {
+		return _documents;
+	}
+
+	public long totalParseTime() {
+		return _totalParseTime;
+	}
+
+	public long totalTextLength() {
+		return _totalTextLength;
+	}
+
+	public long totalElements() {
+		return _totalElements;
+	}
+
+	public long totalEditorTags() {
+		return _totalEditorTags;
+	}
+
+	public long totalCacheSize() {
+		return _totalCacheSize;
+	}
+
+	public long totalElementReparses() {
+		return _totalElementReparses;
+	}
+
+	public long totalDocumentReparses() {
+		return _totalDocumentReparses;
+	}
+
+	public int nbStubs() {
+		return _nbStubs;
+	}
+
+	/**
+	 * Write these statistics as comma separated values, with one line per document
+	 * and a final line with the totals. Parse times are written in milliseconds.
+	 */
+	public void writeCSV(Writer writer) throws IOException {
+		writer.write("path,stub,parse time (ms),characters,elements,editor tags,cache size,dependents,element reparses,document reparses\n");
+		for(DocumentStatistics document: _documents) {
+			writer.write(quote(document.path().toString()));
+			writer.write(',');
+			writer.write(String.valueOf(document.isStub()));
+			writer.write(',');
+			writer.write(milliseconds(document.parseTime()));
+			writer.write(',');
+			writer.write(String.valueOf(document.textLength()));
+			writer.write(',');
+			writer.write(String.valueOf(document.nbElements()));
+			writer.write(',');
+			writer.write(String.valueOf(document.nbEditorTags()));
+			writer.write(',');
+			writer.write(String.valueOf(document.cacheSize()));
+			writer.write(',');
+			writer.write(String.valueOf(document.nbDependents()));
+			writer.write(',');
+			writer.write(String.valueOf(document.nbElementReparses()));
+			writer.write(',');
+			writer.write(String.valueOf(document.nbDocumentReparses()));
+			writer.write('\n');
+		}
+		writer.write("total,"+_nbStubs+","+milliseconds(_totalParseTime)+","+_totalTextLength+","+_totalElements+","+_totalEditorTags+","+_totalCacheSize+",,"+_totalElementReparses+","+_totalDocumentReparses+"\n");
+		writer.flush();
+	}
+
+	public static String milliseconds(long nanoseconds) {
+		return String.valueOf(nanoseconds / 1000000.0);
+	}
+
+	private String quote(String value) {
+		return "\""+value.replace("\"", "\"\"")+"\"";
+	}
+
+}
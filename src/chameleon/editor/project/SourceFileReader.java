@@ -0,0 +1,89 @@
+package chameleon.editor.project;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+
+/**
+ * Reads the text of source files. The text is decoded with the charset of the file,
+ * and the line delimiters of the file are preserved.
+ *
+ * Files in the local file system are read through a file channel. Large files are
+ * mapped into memory and decoded in a single pass. Files that are not in the local
+ * file system are read from the contents stream of the workspace.
+ */
+public class SourceFileReader {
+
+	/**
+	 * Files that are at least this large (in bytes) are mapped into memory.
+	 */
+	public static final int MAPPING_THRESHOLD = 64 * 1024;
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	/**
+	 * Return the text of the given file.
+	 */
+	public static String read(IFile file) throws CoreException, IOException {
+		Charset charset = Charset.forName(file.getCharset());
+		IPath location = file.getLocation();
+		if(location != null) {
+			File local = location.toFile();
+			if(local.isFile()) {
+				return read(local, charset);
+			}
+		}
+		return read(new InputStreamReader(file.getContents(), charset), BUFFER_SIZE);
+	}
+
+	/**
+	 * Return the text of the given file in the local file system, decoded with
+	 * the given charset.
+	 */
+	public static String read(File file, Charset charset) throws IOException {
+		FileInputStream stream = new FileInputStream(file);
+		try {
+			FileChannel channel = stream.getChannel();
+			long size = channel.size();
+			if(size > Integer.MAX_VALUE) {
+				throw new IOException("The file "+file+" is too large to be read into a document.");
+			}
+			ByteBuffer bytes;
+			if(size >= MAPPING_THRESHOLD) {
+				bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			} else {
+				bytes = ByteBuffer.allocate((int)size);
+				while(bytes.hasRemaining() && channel.read(bytes) >= 0) {
+				}
+				bytes.flip();
+			}
+			return charset.decode(bytes).toString();
+		} finally {
+			stream.close();
+		}
+	}
+
+	private static String read(Reader reader, int bufferSize) throws IOException {
+		try {
+			StringBuilder result = new StringBuilder();
+			char[] buffer = new char[bufferSize];
+			int count;
+			while((count = reader.read(buffer)) >= 0) {
+				result.append(buffer, 0, count);
+			}
+			return result.toString();
+		} finally {
+			reader.close();
+		}
+	}
+
+}
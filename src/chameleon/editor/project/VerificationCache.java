@@ -0,0 +1,157 @@
+package chameleon.editor.project;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+
+import chameleon.core.compilationunit.CompilationUnit;
+import chameleon.core.element.Element;
+import chameleon.core.reference.CrossReference;
+import chameleon.core.validation.Valid;
+import chameleon.core.validation.VerificationResult;
+import chameleon.exception.ModelException;
+
+/**
+ * Caches the results of the verification of the elements of the compilation units of a project,
+ * so a compilation unit can be verified again without verifying the elements that did not change.
+ *
+ * The cached result of an element is the result of verifySelf(), without its children. It remains
+ * valid while the element is part of the model: parsing an element again replaces it by a new element.
+ * The result can also depend on the declarations to which the cross-references in the subtree of the
+ * element resolve. The declarator of every cross-reference is recorded, and the results of the
+ * cross-reference and of its ancestors are computed again when that declarator has been replaced.
+ * The results of the ancestors of a new element are computed again as well.
+ *
+ * Some checks read declarations outside the subtree of the element without a cross-reference to them,
+ * such as the check that a class implements the abstract methods it inherits, or that a method is
+ * compatible with the methods it overrides. Their results are not recorded per declaration. Instead, the
+ * project nature forgets the results of every compilation unit that depends on a compilation unit that
+ * has been parsed again.
+ *
+ * A change to the declarations of the project can change the declaration to which any cross-reference
+ * resolves, so it requires the whole cache to be cleared. The project nature does that whenever it
+ * flushes the cache of the entire project.
+ *
+ * The tree of a compilation unit is still traversed at every verification, but only the elements
+ * whose inputs have changed are verified, so the cost of verification scales with the size of the change.
+ */
+public class VerificationCache {
+
+	private static class Entry {
+
+		public Entry(VerificationResult result, Element declarator) {
+			_result = result;
+			_declarator = declarator;
+			_root = (declarator == null ? null : declarator.farthestAncestor());
+		}
+
+		private VerificationResult _result;
+
+		// The declaration to which the element resolves, if it is a cross-reference.
+		private Element _declarator;
+
+		// The root of the declarator when the element was verified. It changes when
+		// the declarator is removed from the model.
+		private Element _root;
+
+		public boolean isValid() {
+			return _declarator == null || _declarator.farthestAncestor() == _root;
+		}
+	}
+
+	// The entries of the elements of every compilation unit, by element.
+	private Map<CompilationUnit, Map<Element, Entry>> _entries = new HashMap<CompilationUnit, Map<Element, Entry>>();
+
+	/**
+	 * Verify the given compilation unit, reusing the results of the elements that have not changed
+	 * since the previous verification. If the given monitor is canceled during the verification,
+	 * null is returned and the results of the previous verification are kept.
+	 */
+	public synchronized VerificationResult verify(CompilationUnit cu, IProgressMonitor monitor) {
+		Map<Element, Entry> old = _entries.get(cu);
+		if(old == null) {
+			old = new IdentityHashMap<Element, Entry>();
+		}
+		// Only the entries of the elements that are still in the compilation unit are kept.
+		Map<Element, Entry> entries = new IdentityHashMap<Element, Entry>();
+		List<VerificationResult> results = new ArrayList<VerificationResult>();
+		try {
+			verify(cu, old, entries, results, monitor);
+		} catch(OperationCanceledException exc) {
+			return null;
+		}
+		_entries.put(cu, entries);
+		VerificationResult result = Valid.create();
+		for(VerificationResult elementResult: results) {
+			result = result.and(elementResult);
+		}
+		return result;
+	}
+
+	/**
+	 * Add the results of the given element and its descendants to the given list.
+	 *
+	 * @return True if the results of the element and its descendants have all been taken from the cache.
+	 */
+	private boolean verify(Element element, Map<Element, Entry> old, Map<Element, Entry> entries, List<VerificationResult> results, IProgressMonitor monitor) {
+		if(monitor != null && monitor.isCanceled()) {
+			throw new OperationCanceledException();
+		}
+		boolean unchanged = true;
+		for(Element child: element.children()) {
+			// The other children must be verified as well.
+			unchanged = verify(child, old, entries, results, monitor) && unchanged;
+		}
+		Entry entry = old.get(element);
+		if(entry == null || ! unchanged || ! entry.isValid()) {
+			entry = new Entry(element.verifySelf(), declarator(element));
+			unchanged = false;
+		}
+		entries.put(element, entry);
+		results.add(entry._result);
+		return unchanged;
+	}
+
+	/**
+	 * Return the declaration to which the given element resolves if it is a cross-reference.
+	 * Verification has resolved it already, so this is cheap.
+	 */
+	private Element declarator(Element element) {
+		if(element instanceof CrossReference) {
+			try {
+				return ((CrossReference)element).getDeclarator();
+			} catch(ModelException exc) {
+				// The verification result reports the problem.
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Return the number of results that are cached for the elements of the given compilation unit.
+	 */
+	public synchronized int size(CompilationUnit cu) {
+		Map<Element, Entry> entries = _entries.get(cu);
+		return entries == null ? 0 : entries.size();
+	}
+
+	/**
+	 * Forget the results of the given compilation unit.
+	 */
+	public synchronized void forget(CompilationUnit cu) {
+		_entries.remove(cu);
+	}
+
+	/**
+	 * Forget all results.
+	 */
+	public synchronized void clear() {
+		_entries.clear();
+	}
+
+}